@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.HttpUriRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.supernovapps.audio.jstreamsourcer.Icecast;
+import com.supernovapps.audio.jstreamsourcer.MetaDataHttpRequestParams;
+import com.supernovapps.audio.jstreamsourcer.Metadata;
+import com.supernovapps.audio.jstreamsourcer.ultravox2.XTEA;
+
+/**
+ * Encoding done for the authentication and the HTTP metadata updates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodingBenchmark {
+
+  private XTEA xtea;
+  private byte[] credentials;
+  private byte[] key;
+
+  private MetaDataHttpRequestParams params;
+
+  private Icecast icecast;
+  private Metadata metadata;
+
+  @Setup
+  public void setUp() {
+    xtea = new XTEA();
+    credentials = "1:2:username:password".getBytes();
+    key = "0123456789abcdef".getBytes();
+
+    params = new MetaDataHttpRequestParams();
+    params.put("mode", "updinfo");
+    params.put("mount", "/stream1");
+    params.put("charset", "UTF-8");
+    params.put("song", "An album A song title & more An artist");
+
+    // the metadata requests are only built once started
+    icecast = new Icecast(128, 0);
+    icecast.setHost("localhost");
+    icecast.setPort(8000);
+    icecast.setPath("/stream1");
+    icecast.setUsername("source");
+    icecast.setPassword("password");
+    icecast.start(new NullTransport("HTTP/1.0 200 OK\r\n\r\n".getBytes()));
+
+    if (!icecast.isStarted()) {
+      throw new IllegalStateException("Handshake failed");
+    }
+
+    metadata = new Metadata("A song title & more", "An artist", "An album");
+  }
+
+  @TearDown
+  public void tearDown() {
+    icecast.stop();
+  }
+
+  @Benchmark
+  public String xteaEncipher() {
+    return xtea.XTEA_encipher(credentials, key);
+  }
+
+  @Benchmark
+  public String metadataParams() {
+    return params.toString();
+  }
+
+  /**
+   * The whole request of an Icecast metadata update, as sent by the library: the same query as
+   * metadataParams, URL encoded into a reused buffer, plus the HttpGet and its headers.
+   */
+  @Benchmark
+  public HttpUriRequest metadataRequest() {
+    return icecast.getUpdateMetadataRequest(metadata);
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.supernovapps.audio.jstreamsourcer.Metadata;
+import com.supernovapps.audio.jstreamsourcer.ultravox2.Message;
+import com.supernovapps.audio.jstreamsourcer.ultravox2.MessageFactory;
+
+/**
+ * Encoding of the Ultravox messages: audio data and XML metadata.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+
+  @Param({"417", "4096"})
+  public int payloadSize;
+
+  private byte[] payload;
+  private byte[] buffer;
+  private Message message;
+  private Metadata metadata;
+
+  @Setup
+  public void setUp() {
+    payload = new byte[payloadSize];
+    buffer = new byte[Message.HEADER_SIZE + Message.MAX_PAYLOAD_SIZE + Message.TRAILER_SIZE];
+
+    message = MessageFactory.getData(Message.DATA1_MP3, payload, payloadSize);
+
+    metadata = new Metadata("A song title & more", "An artist", "An album");
+    metadata.setYear("2014");
+    metadata.setComment("Some comment about <that> song");
+  }
+
+  /**
+   * Allocates the encoded message, as done by the handshake.
+   */
+  @Benchmark
+  public byte[] encode() {
+    return message.encode();
+  }
+
+  /**
+   * Encodes into a reused buffer, as done by the write path.
+   */
+  @Benchmark
+  public int encodeInPlace() {
+    return Message.encode(Message.CLASS_DATA1, Message.DATA1_MP3, payload, 0, payloadSize,
+        buffer, 0);
+  }
+
+  @Benchmark
+  public Message getData() {
+    return MessageFactory.getData(Message.DATA1_MP3, payload, payloadSize);
+  }
+
+  @Benchmark
+  public Message[] getMetadata() {
+    return MessageFactory.getMetadata(metadata, payloadSize);
+  }
+}
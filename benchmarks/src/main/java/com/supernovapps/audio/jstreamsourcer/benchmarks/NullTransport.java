@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import com.supernovapps.audio.jstreamsourcer.Transport;
+
+/**
+ * Transport discarding everything written, replying to the handshake with the given bytes.
+ */
+public class NullTransport implements Transport {
+  private final InputStream in;
+
+  private final OutputStream out = new OutputStream() {
+    @Override
+    public void write(int b) {}
+
+    @Override
+    public void write(byte[] b, int off, int len) {}
+  };
+
+  private long written = 0;
+
+  public NullTransport(byte[] replies) {
+    in = new ByteArrayInputStream(replies);
+  }
+
+  @Override
+  public void connect(InetSocketAddress address, int timeout, int sendBufferSize) {}
+
+  @Override
+  public InputStream getInputStream() {
+    return in;
+  }
+
+  @Override
+  public OutputStream getOutputStream() {
+    return out;
+  }
+
+  @Override
+  public void write(byte[] data, int offset, int size) {
+    written += size;
+  }
+
+  @Override
+  public void flush() {}
+
+  @Override
+  public void close() {}
+
+  @Override
+  public boolean isConnected() {
+    return true;
+  }
+
+  public long getWritten() {
+    return written;
+  }
+}
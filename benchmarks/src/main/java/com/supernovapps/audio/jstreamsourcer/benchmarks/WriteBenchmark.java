@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.supernovapps.audio.jstreamsourcer.Icecast;
+import com.supernovapps.audio.jstreamsourcer.ShoutcastV1;
+import com.supernovapps.audio.jstreamsourcer.ShoutcastV2;
+import com.supernovapps.audio.jstreamsourcer.Sourcer;
+import com.supernovapps.audio.jstreamsourcer.ultravox2.Message;
+
+/**
+ * Sourcer.write down to a transport discarding the data, without pacing, so that only the
+ * protocol framing and the bookkeeping of the write path are measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteBenchmark {
+
+  @Param({"icecast", "shoutcastv1", "shoutcastv2"})
+  public String protocol;
+
+  @Param({"1024", "4096"})
+  public int bufferSize;
+
+  private Sourcer sourcer;
+  private byte[] buffer;
+
+  @Setup
+  public void setUp() throws IOException {
+    buffer = new byte[bufferSize];
+
+    if ("shoutcastv2".equals(protocol)) {
+      ShoutcastV2 shoutcast = new ShoutcastV2(128, 0);
+      shoutcast.setHost("localhost");
+      shoutcast.setPort(8000);
+      shoutcast.setPassword("password");
+      shoutcast.setUid("1");
+      shoutcast.setSid("1");
+      shoutcast.setPacer(null);
+      shoutcast.start(new NullTransport(getUltravoxReplies()));
+      sourcer = shoutcast;
+    } else if ("shoutcastv1".equals(protocol)) {
+      ShoutcastV1 shoutcast = new ShoutcastV1(128, 0);
+      shoutcast.setHost("localhost");
+      shoutcast.setPort(8000);
+      shoutcast.setPassword("password");
+      shoutcast.setPacer(null);
+      shoutcast.start(new NullTransport("OK2\r\n\r\n".getBytes()));
+      sourcer = shoutcast;
+    } else {
+      Icecast icecast = new Icecast(128, 0);
+      icecast.setHost("localhost");
+      icecast.setPort(8000);
+      icecast.setPath("/stream");
+      icecast.setUsername("source");
+      icecast.setPassword("password");
+      icecast.setPacer(null);
+      icecast.start(new NullTransport("HTTP/1.0 200 OK\r\n\r\n".getBytes()));
+      sourcer = icecast;
+    }
+
+    if (!sourcer.isStarted()) {
+      throw new IllegalStateException("Handshake failed");
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    sourcer.stop();
+  }
+
+  @Benchmark
+  public void write() {
+    sourcer.write(buffer, buffer.length);
+  }
+
+  private static byte[] getUltravoxReplies() throws IOException {
+    short[] types = {
+        Message.BROADCAST_REQUEST_CIPHER, Message.BROADCAST_AUTHENTIFICATE,
+        Message.BROADCAST_STREAM_MINE_TYPE, Message.BROADCAST_SETUP,
+        Message.BROADCAST_NEGOTIATE_BUFFER_SIZE, Message.BROADCAST_NEGOTIATE_MAX_PAYLOAD,
+        Message.BROADCAST_CONFIGURE_ICY_GENRE, Message.BROADCAST_CONFIGURE_ICY_NAME,
+        Message.BROADCAST_CONFIGURE_ICY_PUB, Message.BROADCAST_CONFIGURE_ICY_URL,
+        Message.BROADCAST_STANDBY};
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (short type : types) {
+      String payload = "ACK:XXX";
+      if (type == Message.BROADCAST_AUTHENTIFICATE) {
+        payload = "ACK:" + Message.ULTVX_VERSION + ":Allow";
+      } else if (type == Message.BROADCAST_STANDBY) {
+        payload = "ACK:Data transfer mode";
+      }
+
+      Message msg = new Message();
+      msg.msgClass = Message.CLASS_BROADCASTER;
+      msg.msgType = type;
+      msg.payload = payload.getBytes();
+      out.write(msg.encode());
+    }
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import com.supernovapps.audio.jstreamsourcer.ChunkQueue.Chunk;
+
+/**
+ * Drains a ChunkQueue from a dedicated thread, so that the rate limiting and the socket writes
+ * of a Sourcer do not block the thread feeding it.
+ */
+class AsyncWriter implements Runnable {
+  private static final long JOIN_TIMEOUT = 5000;
+
+  private final Sourcer sourcer;
+  private final ChunkQueue queue;
+  private final Thread thread;
+
+  public AsyncWriter(Sourcer sourcer, int capacity, OverflowPolicy policy) {
+    this.sourcer = sourcer;
+
+    queue = new ChunkQueue(capacity, policy);
+
+    thread = new Thread(this, "jstreamsourcer-writer");
+    thread.setDaemon(true);
+  }
+
+  public void start() {
+    thread.start();
+  }
+
+  /**
+   * Stops the I/O thread, the queued data are dropped. Waits, for a bounded time, for the buffer
+   * being written, unless called from the I/O thread itself.
+   */
+  public void shutdown() {
+    queue.close();
+
+    if (Thread.currentThread() == thread) {
+      return;
+    }
+
+    try {
+      thread.join(JOIN_TIMEOUT);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public ChunkQueue getQueue() {
+    return queue;
+  }
+
+  @Override
+  public void run() {
+    Chunk chunk = null;
+
+    try {
+      while ((chunk = queue.take(chunk)) != null) {
+        sourcer.writeNow(chunk.data, 0, chunk.size);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
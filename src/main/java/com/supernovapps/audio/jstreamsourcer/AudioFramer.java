@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+/**
+ * Stage between Sourcer.write and Sourcer.writeData, cutting the audio on the boundaries of its
+ * container or codec frames.
+ */
+interface AudioFramer {
+
+  /**
+   * Appends the given data and writes all the frames completed.
+   *
+   * @param data, buffer of data
+   * @param offset, the offset of the data in the buffer
+   * @param size, the size of the data
+   */
+  void write(byte[] data, int offset, int size);
+
+  /**
+   * Drops the partial frame buffered.
+   */
+  void reset();
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import com.supernovapps.audio.jstreamsourcer.ultravox2.Message;
+import com.supernovapps.audio.jstreamsourcer.ultravox2.MetadataFragmenter;
+
+/**
+ * Binary metadata, as a picture, being sent as cacheable binary metadata messages. The data are
+ * read one message at a time, from a buffer or a channel, straight into the fragmenter buffer.
+ */
+class BinaryMetadataStream implements Closeable {
+  private final short msgType;
+  private final ByteBuffer data;
+  private final ReadableByteChannel channel;
+  private final long size;
+
+  private final int id = MetadataFragmenter.nextId();
+
+  private int span = 0;
+  private int index = 0;
+
+  /**
+   * Instantiates a stream reading a buffer, from its position to its limit.
+   */
+  public BinaryMetadataStream(short msgType, ByteBuffer data) {
+    this.msgType = msgType;
+    this.data = data.duplicate();
+    this.channel = null;
+    this.size = this.data.remaining();
+  }
+
+  /**
+   * Instantiates a stream reading a channel, closed once read.
+   */
+  public BinaryMetadataStream(short msgType, ReadableByteChannel channel, long size) {
+    this.msgType = msgType;
+    this.data = null;
+    this.channel = channel;
+    this.size = size;
+  }
+
+  public boolean hasNext() {
+    return span == 0 || index < span;
+  }
+
+  /**
+   * Encodes the next message in the fragmenter buffer.
+   *
+   * @param fragmenter, the fragmenter
+   * @return the size of the encoded message
+   */
+  public int encodeNext(MetadataFragmenter fragmenter) throws IOException {
+    int chunkSize = fragmenter.getChunkSize();
+    if (span == 0) {
+      if (size > (long) chunkSize * 0xFFFF) {
+        throw new IOException("Binary metadata too large: " + size + " bytes");
+      }
+      span = fragmenter.getSpan((int) size);
+    }
+
+    index++;
+
+    int len = (int) Math.min(chunkSize, size - (long) (index - 1) * chunkSize);
+    if (data != null) {
+      data.get(fragmenter.getBuffer(), MetadataFragmenter.DATA_OFFSET, len);
+    } else {
+      ByteBuffer target = ByteBuffer.wrap(fragmenter.getBuffer(), MetadataFragmenter.DATA_OFFSET,
+          len);
+      while (target.hasRemaining()) {
+        if (channel.read(target) < 0) {
+          throw new IOException("Binary metadata truncated");
+        }
+      }
+    }
+
+    if (index == span) {
+      close();
+    }
+
+    return fragmenter.encode(Message.CLASS_CACHEABLE_BINARY_METADATA, msgType, id, span, index,
+        len);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (channel != null) {
+      channel.close();
+    }
+  }
+}
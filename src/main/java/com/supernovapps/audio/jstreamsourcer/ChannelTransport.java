@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Transport based on a SocketChannel. The audio data are copied to a direct buffer allocated once
+ * per connection.
+ *
+ * The channel has to stay in blocking mode while it is used through this class.
+ */
+public class ChannelTransport implements Transport {
+  private final SocketChannel channel;
+
+  private InputStream in = null;
+  private OutputStream out = null;
+
+  private ByteBuffer direct = null;
+
+  public ChannelTransport(SocketChannel channel) {
+    this.channel = channel;
+  }
+
+  @Override
+  public void connect(InetSocketAddress address, int timeout, int sendBufferSize)
+      throws IOException {
+    channel.socket().setSendBufferSize(sendBufferSize);
+    channel.socket().connect(address, timeout);
+
+    direct = ByteBuffer.allocateDirect(sendBufferSize);
+
+    out = Channels.newOutputStream(channel);
+    in = Channels.newInputStream(channel);
+  }
+
+  @Override
+  public InputStream getInputStream() {
+    return in;
+  }
+
+  @Override
+  public OutputStream getOutputStream() {
+    return out;
+  }
+
+  @Override
+  public void write(byte[] data, int offset, int size) throws IOException {
+    while (size > 0) {
+      int len = Math.min(size, direct.capacity());
+
+      direct.clear();
+      direct.put(data, offset, len);
+      direct.flip();
+
+      while (direct.hasRemaining()) {
+        channel.write(direct);
+      }
+
+      offset += len;
+      size -= len;
+    }
+  }
+
+  @Override
+  public void flush() {}
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  @Override
+  public boolean isConnected() {
+    return channel.isConnected();
+  }
+
+  public SocketChannel getChannel() {
+    return channel;
+  }
+}
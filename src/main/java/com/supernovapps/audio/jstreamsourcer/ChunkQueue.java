@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded ring buffer of byte chunks between one writer and one consumer.
+ *
+ * The slots are allocated once and their arrays are only grown, so a steady stream of buffers
+ * does not allocate. The consumer swaps the head chunk against a spare one, the chunk it gets
+ * back is owned by it until it hands it back on the next take.
+ */
+class ChunkQueue {
+
+  static class Chunk {
+    byte[] data;
+    int size;
+  }
+
+  private final Chunk[] slots;
+  private final OverflowPolicy policy;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+
+  private int head = 0;
+  private int count = 0;
+  private long queuedBytes = 0;
+  private long dropped = 0;
+  private boolean closed = false;
+
+  public ChunkQueue(int capacity, OverflowPolicy policy) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+
+    this.policy = policy;
+
+    slots = new Chunk[capacity];
+    for (int i = 0; i < capacity; i++) {
+      slots[i] = new Chunk();
+    }
+  }
+
+  /**
+   * Copies the given data into the queue.
+   *
+   * @return false if the data has been dropped
+   */
+  public boolean offer(byte[] data, int offset, int size) {
+    lock.lock();
+    try {
+      while (count == slots.length && !closed) {
+        switch (policy) {
+          case DROP_NEWEST:
+            dropped++;
+            return false;
+          case DROP_OLDEST:
+            queuedBytes -= slots[head].size;
+            head = (head + 1) % slots.length;
+            count--;
+            dropped++;
+            break;
+          default:
+            try {
+              notFull.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              dropped++;
+              return false;
+            }
+            break;
+        }
+      }
+
+      if (closed) {
+        return false;
+      }
+
+      Chunk chunk = slots[(head + count) % slots.length];
+      if (chunk.data == null || chunk.data.length < size) {
+        chunk.data = new byte[size];
+      }
+      System.arraycopy(data, offset, chunk.data, 0, size);
+      chunk.size = size;
+
+      count++;
+      queuedBytes += size;
+
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+
+    return true;
+  }
+
+  /**
+   * Takes the oldest chunk, waiting for one if the queue is empty.
+   *
+   * @param spare, chunk put in place of the one taken, may be null
+   * @return the oldest chunk or null if the queue has been closed
+   */
+  public Chunk take(Chunk spare) throws InterruptedException {
+    lock.lock();
+    try {
+      while (count == 0) {
+        if (closed) {
+          return null;
+        }
+        notEmpty.await();
+      }
+
+      return dequeue(spare);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Takes the oldest chunk without waiting.
+   *
+   * @param spare, chunk put in place of the one taken, may be null
+   * @return the oldest chunk or null if the queue is empty
+   */
+  public Chunk poll(Chunk spare) {
+    lock.lock();
+    try {
+      if (count == 0) {
+        return null;
+      }
+
+      return dequeue(spare);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private Chunk dequeue(Chunk spare) {
+    Chunk chunk = slots[head];
+    slots[head] = spare != null ? spare : new Chunk();
+
+    head = (head + 1) % slots.length;
+    count--;
+    queuedBytes -= chunk.size;
+
+    notFull.signal();
+
+    return chunk;
+  }
+
+  /**
+   * Drops all the queued chunks.
+   */
+  public void clear() {
+    lock.lock();
+    try {
+      head = 0;
+      count = 0;
+      queuedBytes = 0;
+
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Drops all the queued chunks and wakes up the waiting threads.
+   */
+  public void close() {
+    lock.lock();
+    try {
+      closed = true;
+      clear();
+
+      notEmpty.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getCapacity() {
+    return slots.length;
+  }
+
+  public int size() {
+    lock.lock();
+    try {
+      return count;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public long getQueuedBytes() {
+    lock.lock();
+    try {
+      return queuedBytes;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public long getDropped() {
+    lock.lock();
+    try {
+      return dropped;
+    } finally {
+      lock.unlock();
+    }
+  }
+}
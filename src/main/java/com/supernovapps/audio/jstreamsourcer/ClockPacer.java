@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package com.supernovapps.audio.jstreamsourcer;
+
+/**
+ * Base of the pacers converting the data written into a duration of audio.
+ *
+ * The pacing is tracked as a virtual clock: the time at which all the audio accounted so far
+ * would have been sent in real time. The waits are always computed against that clock, so
+ * oversleeping is caught up on the next sends instead of accumulating. The clock is never let
+ * behind the current time by more than the burst, which is the amount of audio that may be sent
+ * without waiting and so also bounds the lateness that can be caught up.
+ */
+public abstract class ClockPacer implements Pacer {
+  protected static final long NANOS_PER_SECOND = 1000000000L;
+
+  private final long burstNanos;
+
+  private long clock = 0;
+  private boolean started = false;
+
+  /**
+   * @param burstNanos, the duration of audio that may be sent without waiting
+   */
+  protected ClockPacer(long burstNanos) {
+    this.burstNanos = burstNanos;
+  }
+
+  /**
+   * Gives the duration of the audio contained in the given data.
+   *
+   * @param data, buffer of data about to be sent
+   * @param offset, the offset of the data in the buffer
+   * @param size, the size of the data
+   * @return the duration in nanoseconds
+   */
+  protected abstract long getDurationNanos(byte[] data, int offset, int size);
+
+  @Override
+  public synchronized long getWaitNanos(byte[] data, int offset, int size) {
+    return schedule(getDurationNanos(data, offset, size), System.nanoTime());
+  }
+
+  synchronized long schedule(long durationNanos, long now) {
+    if (!started || clock - (now - burstNanos) < 0) {
+      clock = now - burstNanos;
+      started = true;
+    }
+
+    clock += durationNanos;
+
+    return clock - now;
+  }
+
+  @Override
+  public synchronized void reset() {
+    started = false;
+  }
+
+  public long getBurstNanos() {
+    return burstNanos;
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import com.supernovapps.audio.jstreamsourcer.audio.AdtsFrameFormat;
+import com.supernovapps.audio.jstreamsourcer.audio.FrameFormat;
+import com.supernovapps.audio.jstreamsourcer.audio.Mp3FrameFormat;
+import com.supernovapps.audio.jstreamsourcer.ultravox2.Message;
+
+/**
+ * Audio codecs, with the MIME type announced to the server and the Ultravox data messages
+ * carrying them.
+ */
+public enum Codec {
+  MP3("audio/mpeg", Message.CLASS_DATA1, Message.DATA1_MP3),
+
+  /**
+   * AAC LC in ADTS frames.
+   */
+  AAC_LC("audio/aac", Message.CLASS_DATA2, Message.DATA2_AAC_LC),
+
+  /**
+   * HE-AAC (AAC+) in ADTS frames.
+   */
+  AACP("audio/aacp", Message.CLASS_DATA2, Message.DATA2_AACP);
+
+  private final String mimeType;
+  private final byte msgClass;
+  private final short msgType;
+
+  private Codec(String mimeType, byte msgClass, short msgType) {
+    this.mimeType = mimeType;
+    this.msgClass = msgClass;
+    this.msgType = msgType;
+  }
+
+  public String getMimeType() {
+    return mimeType;
+  }
+
+  public byte getMsgClass() {
+    return msgClass;
+  }
+
+  public short getMsgType() {
+    return msgType;
+  }
+
+  /**
+   * Creates the format of the frames of the codec.
+   *
+   * @return the frame format
+   */
+  public FrameFormat createFrameFormat() {
+    return this == MP3 ? new Mp3FrameFormat() : new AdtsFrameFormat();
+  }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.supernovapps.audio.jstreamsourcer.ultravox2.Message;
+
+/**
+ * Timings of the connection attempts of a sourcer, one histogram per step.
+ *
+ * All the protocols record the TCP connect, the authentication round trip, the whole handshake
+ * and the time from the beginning of the attempt to the first audio byte sent. ShoutcastV2 also
+ * records each step of the Ultravox handshake, from the message sent to its acknowledgement, or
+ * from the configuration sent at once in pipelined mode.
+ */
+public class ConnectionTimings {
+  public static final String CONNECT = "connect";
+  public static final String AUTH = "auth";
+  public static final String HANDSHAKE = "handshake";
+  public static final String FIRST_BYTE = "first_byte";
+
+  private static final String ULTRAVOX_PREFIX = "ultravox_";
+
+  private static final String STEP_SECONDS = "jstreamsourcer_connection_step_seconds";
+  private static final String ATTEMPTS_TOTAL = "jstreamsourcer_connection_attempts_total";
+  private static final String FAILURES_TOTAL = "jstreamsourcer_connection_failures_total";
+
+  private final ConcurrentHashMap<String, LatencyHistogram> histograms =
+      new ConcurrentHashMap<String, LatencyHistogram>();
+
+  private final AtomicLong attempts = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+
+  private volatile long attemptStart = 0;
+  private volatile boolean firstBytePending = false;
+
+  /**
+   * Starts timing a connection attempt.
+   *
+   * @return the beginning of the attempt, as given by System.nanoTime
+   */
+  long beginAttempt() {
+    attempts.incrementAndGet();
+    firstBytePending = false;
+
+    long now = System.nanoTime();
+    attemptStart = now;
+    return now;
+  }
+
+  /**
+   * Records the duration of a step, up to now.
+   *
+   * @param step, the name of the step
+   * @param start, the beginning of the step, as given by System.nanoTime
+   * @return now
+   */
+  long record(String step, long start) {
+    long now = System.nanoTime();
+    getHistogram(step).record(now - start);
+    return now;
+  }
+
+  /**
+   * Records the acknowledgement of an Ultravox handshake step.
+   */
+  long recordUltravox(short msgType, long start) {
+    return record(ULTRAVOX_PREFIX + getUltravoxStep(msgType), start);
+  }
+
+  void connected() {
+    record(HANDSHAKE, attemptStart);
+    firstBytePending = true;
+  }
+
+  void failed() {
+    failures.incrementAndGet();
+  }
+
+  /**
+   * Called after each write to the server, records the first audio byte of the connection.
+   */
+  void bytesSent() {
+    if (firstBytePending) {
+      firstBytePending = false;
+      record(FIRST_BYTE, attemptStart);
+    }
+  }
+
+  private LatencyHistogram getHistogram(String step) {
+    LatencyHistogram histogram = histograms.get(step);
+    if (histogram == null) {
+      LatencyHistogram created = new LatencyHistogram();
+      histogram = histograms.putIfAbsent(step, created);
+      if (histogram == null) {
+        histogram = created;
+      }
+    }
+    return histogram;
+  }
+
+  static String getUltravoxStep(short msgType) {
+    switch (msgType) {
+      case Message.BROADCAST_REQUEST_CIPHER:
+        return "cipher";
+      case Message.BROADCAST_AUTHENTIFICATE:
+        return "auth";
+      case Message.BROADCAST_STREAM_MINE_TYPE:
+        return "mime_type";
+      case Message.BROADCAST_SETUP:
+        return "setup";
+      case Message.BROADCAST_NEGOTIATE_BUFFER_SIZE:
+        return "buffer_size";
+      case Message.BROADCAST_NEGOTIATE_MAX_PAYLOAD:
+        return "max_payload";
+      case Message.BROADCAST_CONFIGURE_ICY_GENRE:
+        return "icy_genre";
+      case Message.BROADCAST_CONFIGURE_ICY_NAME:
+        return "icy_name";
+      case Message.BROADCAST_CONFIGURE_ICY_PUB:
+        return "icy_pub";
+      case Message.BROADCAST_CONFIGURE_ICY_URL:
+        return "icy_url";
+      case Message.BROADCAST_STANDBY:
+        return "standby";
+      default:
+        return "0x" + Integer.toHexString(msgType);
+    }
+  }
+
+  /**
+   * Gets the histogram of a step.
+   *
+   * @param step, ex: CONNECT, or ultravox_ followed by the Ultravox step, ex: ultravox_setup
+   * @return the histogram, null if the step has never been recorded
+   */
+  public LatencyHistogram get(String step) {
+    return histograms.get(step);
+  }
+
+  /**
+   * Gets the histograms of all the steps recorded, sorted by name.
+   *
+   * @return the histograms
+   */
+  public Map<String, LatencyHistogram> getAll() {
+    return Collections.unmodifiableMap(new TreeMap<String, LatencyHistogram>(histograms));
+  }
+
+  public long getAttempts() {
+    return attempts.get();
+  }
+
+  public long getFailures() {
+    return failures.get();
+  }
+
+  /**
+   * Forgets all the timings.
+   */
+  public void reset() {
+    histograms.clear();
+    attempts.set(0);
+    failures.set(0);
+  }
+
+  /**
+   * Writes the samples of the timings in the Prometheus text format, without the TYPE lines: the
+   * histogram jstreamsourcer_connection_step_seconds with a step label, and the counters of
+   * attempts and failures. See writeText(StringBuilder, Map) for a whole exposition.
+   *
+   * @param out, where to write
+   * @param labels, the labels identifying the sourcer, ex: server="relay1", empty for none
+   */
+  public void writeText(StringBuilder out, String labels) {
+    writeSteps(out, labels);
+    writeCounter(out, ATTEMPTS_TOTAL, attempts.get(), labels);
+    writeCounter(out, FAILURES_TOTAL, failures.get(), labels);
+  }
+
+  /**
+   * Writes the timings of several sourcers in the Prometheus text format, so that they can be
+   * compared from one scrape. Each metric family is written once, its TYPE line followed by the
+   * samples of all the sourcers.
+   *
+   * @param out, where to write
+   * @param timings, the timings of each sourcer, by the labels identifying it, ex:
+   *        server="relay1"
+   */
+  public static void writeText(StringBuilder out, Map<String, ConnectionTimings> timings) {
+    out.append("# TYPE ").append(STEP_SECONDS).append(" histogram\n");
+    for (Entry<String, ConnectionTimings> entry : timings.entrySet()) {
+      entry.getValue().writeSteps(out, entry.getKey());
+    }
+
+    out.append("# TYPE ").append(ATTEMPTS_TOTAL).append(" counter\n");
+    for (Entry<String, ConnectionTimings> entry : timings.entrySet()) {
+      writeCounter(out, ATTEMPTS_TOTAL, entry.getValue().attempts.get(), entry.getKey());
+    }
+
+    out.append("# TYPE ").append(FAILURES_TOTAL).append(" counter\n");
+    for (Entry<String, ConnectionTimings> entry : timings.entrySet()) {
+      writeCounter(out, FAILURES_TOTAL, entry.getValue().failures.get(), entry.getKey());
+    }
+  }
+
+  private void writeSteps(StringBuilder out, String labels) {
+    String prefix = labels.length() > 0 ? labels + "," : "";
+
+    for (Entry<String, LatencyHistogram> entry : getAll().entrySet()) {
+      entry.getValue().writeText(out, STEP_SECONDS, prefix + "step=\"" + entry.getKey() + "\"");
+    }
+  }
+
+  private static void writeCounter(StringBuilder out, String name, long value, String labels) {
+    String braces = labels.length() > 0 ? "{" + labels + "}" : "";
+    out.append(name).append(braces).append(' ').append(value).append('\n');
+  }
+}
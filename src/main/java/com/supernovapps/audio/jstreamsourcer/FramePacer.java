@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import com.supernovapps.audio.jstreamsourcer.audio.FrameFormat;
+import com.supernovapps.audio.jstreamsourcer.audio.Mp3FrameFormat;
+
+/**
+ * Pacer using the real duration of the audio frames instead of a nominal bitrate, which is what
+ * VBR streams, or CBR ones with padding, need to be sent in real time.
+ *
+ * The frame headers are looked for in the data as they are written, the frames may be split
+ * across several writes. The bytes which are not part of a frame are skipped until the next
+ * frame header.
+ */
+public class FramePacer extends ClockPacer {
+  private final FrameFormat format;
+
+  private final byte[] header;
+  private int headerLen = 0;
+  private int skip = 0;
+
+  private int sampleRate = 0;
+  private long carry = 0;
+
+  /**
+   * Instantiates a new frame pacer.
+   *
+   * @param format, the format of the frames
+   * @param burst, number of milliseconds of audio that may be sent without waiting
+   */
+  public FramePacer(FrameFormat format, int burst) {
+    super(burst * 1000000L);
+
+    this.format = format;
+
+    header = new byte[format.getHeaderSize()];
+  }
+
+  /**
+   * Instantiates a pacer for MPEG audio frames.
+   *
+   * @param burst, number of milliseconds of audio that may be sent without waiting
+   * @return the pacer
+   */
+  public static FramePacer forMp3(int burst) {
+    return new FramePacer(new Mp3FrameFormat(), burst);
+  }
+
+  @Override
+  protected long getDurationNanos(byte[] data, int offset, int size) {
+    long duration = 0;
+    int end = offset + size;
+
+    while (offset < end) {
+      if (skip > 0) {
+        int len = Math.min(skip, end - offset);
+        skip -= len;
+        offset += len;
+        continue;
+      }
+
+      int len = Math.min(header.length - headerLen, end - offset);
+      System.arraycopy(data, offset, header, headerLen, len);
+      headerLen += len;
+      offset += len;
+
+      while (headerLen == header.length) {
+        int frameLen = format.getFrameLength(header, 0);
+        if (frameLen <= 0) {
+          shift(1);
+          continue;
+        }
+
+        duration += getFrameDurationNanos();
+
+        int consumed = Math.min(frameLen, headerLen);
+        shift(consumed);
+        skip = frameLen - consumed;
+
+        if (skip > 0) {
+          break;
+        }
+      }
+    }
+
+    return duration;
+  }
+
+  private long getFrameDurationNanos() {
+    int samples = format.getSamples(header, 0);
+    int rate = format.getSampleRate(header, 0);
+    if (samples <= 0 || rate <= 0) {
+      return 0;
+    }
+
+    if (rate != sampleRate) {
+      sampleRate = rate;
+      carry = 0;
+    }
+
+    long total = samples * NANOS_PER_SECOND + carry;
+    carry = total % rate;
+
+    return total / rate;
+  }
+
+  private void shift(int len) {
+    headerLen -= len;
+    System.arraycopy(header, len, header, 0, headerLen);
+  }
+
+  @Override
+  public synchronized void reset() {
+    super.reset();
+
+    headerLen = 0;
+    skip = 0;
+    sampleRate = 0;
+    carry = 0;
+  }
+}
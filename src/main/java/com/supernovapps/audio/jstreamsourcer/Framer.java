@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import com.supernovapps.audio.jstreamsourcer.audio.FrameFormat;
+
+/**
+ * Buffers the audio written to a Sourcer and only hands whole frames over to it, so that what is
+ * sent downstream, and the metadata inserted between, always start on a frame boundary.
+ *
+ * The bytes not belonging to a frame are dropped while resynchronizing, as are the frames without
+ * audio, as tags. Consecutive frames are handed over together, up to the sourcer max run size.
+ */
+class Framer implements AudioFramer {
+  private final Sourcer sourcer;
+  private final FrameFormat format;
+
+  private byte[] buffer = new byte[8192];
+  private int start = 0;
+  private int end = 0;
+
+  public Framer(Sourcer sourcer, FrameFormat format) {
+    this.sourcer = sourcer;
+    this.format = format;
+  }
+
+  public FrameFormat getFormat() {
+    return format;
+  }
+
+  @Override
+  public void write(byte[] data, int offset, int size) {
+    append(data, offset, size);
+
+    int headerSize = format.getHeaderSize();
+    int maxRun = sourcer.getMaxFrameRun();
+
+    int run = start;
+    int pos = start;
+    int frames = 0;
+    while (end - pos >= headerSize) {
+      int length = format.getFrameLength(buffer, pos);
+      if (length <= 0) {
+        emit(run, pos);
+        run = ++pos;
+        continue;
+      }
+
+      if (end - pos < length) {
+        break;
+      }
+
+      if (format.getSamples(buffer, pos) == 0) {
+        emit(run, pos);
+        pos += length;
+        run = pos;
+        continue;
+      }
+
+      if (pos > run && pos + length - run > maxRun) {
+        emit(run, pos);
+        run = pos;
+      }
+      pos += length;
+      frames++;
+    }
+
+    emit(run, pos);
+    start = pos;
+
+    sourcer.metrics.framesWritten(frames);
+  }
+
+  @Override
+  public void reset() {
+    start = 0;
+    end = 0;
+  }
+
+  private void emit(int from, int to) {
+    if (to > from) {
+      sourcer.writeData(buffer, from, to - from);
+    }
+  }
+
+  private void append(byte[] data, int offset, int size) {
+    int remaining = end - start;
+    if (end + size > buffer.length) {
+      if (remaining + size > buffer.length) {
+        byte[] grown = new byte[Math.max(buffer.length * 2, remaining + size)];
+        System.arraycopy(buffer, start, grown, 0, remaining);
+        buffer = grown;
+      } else {
+        System.arraycopy(buffer, start, buffer, 0, remaining);
+      }
+      start = 0;
+      end = remaining;
+    }
+
+    System.arraycopy(data, offset, buffer, end, size);
+    end += size;
+  }
+}
@@ -22,17 +22,13 @@ import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.HashMap;
+import java.nio.channels.SocketChannel;
 import java.util.LinkedHashMap;
-import java.util.Map;
 import java.util.Map.Entry;
 
 import org.apache.commons.codec.binary.Base64;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.impl.client.HttpClientBuilder;
 
 public class Icecast extends Sourcer {
   private String host = null;
@@ -42,22 +38,32 @@ public class Icecast extends Sourcer {
   private String username = null;
   private String password = null;
 
-  private Socket sock = null;
+  private final UrlEncodedBuffer urlBuffer = new UrlEncodedBuffer(256);
 
-  private String metadataTemplate = "_album_ _song_ _artist_";
+  private volatile OggFramer oggFramer = null;
 
   public Icecast(int kbps, int burst) {
     super(kbps, burst);
   }
 
   public boolean start(Socket sock) {
+    return start(new SocketTransport(sock));
+  }
+
+  public boolean start(SocketChannel channel) {
+    return start(new ChannelTransport(channel));
+  }
+
+  public boolean start(Transport transport) {
+    resetWriteState();
+
+    long begin = timings.beginAttempt();
     try {
-      this.sock = sock;
-      sock.connect(new InetSocketAddress(host, port), timeout);
-      sock.setSendBufferSize(64 * 1024);
-      out = sock.getOutputStream();
+      this.transport = transport;
+      transport.connect(new InetSocketAddress(host, port), timeout, sendBufferSize);
+      long sent = timings.record(ConnectionTimings.CONNECT, begin);
 
-      PrintWriter output = new PrintWriter(out);
+      PrintWriter output = new PrintWriter(transport.getOutputStream());
       output.println("SOURCE " + path + " HTTP/1.0");
 
       writeAuthentication(output);
@@ -66,26 +72,27 @@ public class Icecast extends Sourcer {
       output.println("");
       output.flush();
 
-      InputStreamReader isr = new InputStreamReader(sock.getInputStream());
+      InputStreamReader isr = new InputStreamReader(transport.getInputStream());
       BufferedReader in = new BufferedReader(isr);
       String line = in.readLine();
+      timings.record(ConnectionTimings.AUTH, sent);
 
       if (line == null || !line.contains("HTTP") || !line.contains("OK")) {
+        timings.failed();
+        closeTransport();
+
         if (listener != null) {
           listener.onError("Connection / Authentification error");
         }
         return false;
       }
+
+      writeOggHeaders();
     } catch (Exception e) {
       e.printStackTrace();
+      timings.failed();
 
-      try {
-        if (sock != null) {
-          sock.close();
-        }
-      } catch (IOException e1) {
-        e1.printStackTrace();
-      }
+      closeTransport();
 
       if (listener != null) {
         listener.onError("Connection / Authentification error");
@@ -94,6 +101,7 @@ public class Icecast extends Sourcer {
       return false;
     }
     started = true;
+    timings.connected();
 
     if (listener != null) {
       listener.onConnected();
@@ -127,22 +135,73 @@ public class Icecast extends Sourcer {
     }
   }
 
+  private void writeOggHeaders() throws IOException {
+    OggFramer f = oggFramer;
+    if (f == null) {
+      return;
+    }
+
+    byte[] headers = f.getHeaders();
+    if (headers.length > 0) {
+      transport.getOutputStream().write(headers);
+      transport.flush();
+    }
+  }
+
+  /**
+   * Checks if the stream is sent as Ogg pages.
+   *
+   * @return true in Ogg mode
+   */
+  public boolean isOggMode() {
+    return oggFramer != null;
+  }
+
+  /**
+   * Sends the stream as Ogg pages (Opus, Vorbis): only whole pages are sent, the pacing uses the
+   * granule positions of the pages and the header pages of the stream are sent again on each
+   * connection. Should be set before starting, false to go back to MP3 with the bitrate pacing.
+   *
+   * @param oggMode, true to enable the Ogg mode
+   */
+  public void setOggMode(boolean oggMode) {
+    if (oggMode == isOggMode()) {
+      return;
+    }
+
+    if (oggMode) {
+      oggFramer = new OggFramer(this);
+      setFramer(oggFramer);
+      pacer = new OggPacer(burst);
+      streamInfos.put(CONTENT_TYPE, "audio/ogg");
+    } else {
+      oggFramer = null;
+      setFramer(null);
+      pacer = TokenBucketPacer.forBitrate(kbps, burst);
+      streamInfos.put(CONTENT_TYPE, "audio/mpeg");
+    }
+  }
+
   @Override
   public boolean isStarted() {
-    return sock != null && sock.isConnected() && started;
+    return transport != null && transport.isConnected() && started;
   }
 
   @Override
   public boolean stop() {
+    clearPendingWrites();
 
-    try {
-      out.flush();
-      out.close();
-      sock.close();
+    synchronized (writeLock) {
+      try {
+        if (transport != null) {
+          transport.flush();
+          transport.close();
+        }
 
-      started = false;
-    } catch (IOException e) {
-      e.printStackTrace();
+        started = false;
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
     }
 
     if (listener != null) {
@@ -153,58 +212,42 @@ public class Icecast extends Sourcer {
   }
 
   public HttpUriRequest getUpdateMetadataRequest(String song, String artist, String album) {
+    return getUpdateMetadataRequest(new Metadata(song, artist, album));
+  }
+
+  public HttpUriRequest getUpdateMetadataRequest(Metadata metadata) {
     if (!started) {
       return null;
     }
 
-    String metadata =
-        metadataTemplate.replace("_song_", song).replace("_artist_", artist)
-            .replace("_album_", album);
+    String url;
+    synchronized (urlBuffer) {
+      urlBuffer.reset().append("http://").append(host).append(":").append(port)
+          .append("/admin/metadata?mode=updinfo&mount=").appendEncoded(path)
+          .append("&charset=UTF-8&song=");
+      metadataTemplate.render(metadata, urlBuffer);
 
-    MetaDataHttpRequestParams params = new MetaDataHttpRequestParams();
-    params.put("mode", "updinfo");
-    params.put("mount", path);
-    params.put("charset", "UTF-8");
-    params.put("song", metadata);
+      url = urlBuffer.toString();
+    }
 
     String authString = username + ":" + password;
     String token = Base64.encodeBase64String(authString.getBytes());
 
-    HashMap<String, String> headers = new HashMap<String, String>();
-    headers.put("Authorization:", "Basic " + token);
-    headers.put("User-Agent", USER_AGENT);
-
-    HttpUriRequest request =
-        new HttpGet(MetaDataHttpRequestParams.getUrlWithQueryString("http://" + host + ":"
-            + Integer.toString(port) + "/admin/metadata", params));
-    if (headers != null) {
-      for (Map.Entry<String, String> entry : headers.entrySet()) {
-        request.addHeader(entry.getKey(), entry.getValue());
-      }
-    }
+    HttpGet request = new HttpGet(url);
+    request.setConfig(getRequestConfig());
+    request.addHeader("Authorization", "Basic " + token);
+    request.addHeader("User-Agent", USER_AGENT);
 
     return request;
   }
 
   @Override
-  public void updateMetadata(String song, String artist, String album) {
+  protected boolean sendMetadata(Metadata metadata) {
     if (!started) {
-      return;
+      return false;
     }
 
-    RequestConfig requestConfig =
-        RequestConfig.custom().setSocketTimeout(timeout * 1000).setConnectTimeout(timeout * 1000)
-            .build();
-    HttpClient httpClient =
-        HttpClientBuilder.create().setDefaultRequestConfig(requestConfig).build();
-
-    HttpUriRequest request = getUpdateMetadataRequest(song, artist, album);
-
-    try {
-      httpClient.execute(request);
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
+    return executeMetadataRequest(getUpdateMetadataRequest(metadata));
   }
 
   public String getHost() {
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Publishes the metrics of sourcers as MXBeans, named
+ * com.supernovapps.audio.jstreamsourcer:type=Sourcer,name=the name given on registration.
+ */
+public class JmxMetricsExporter implements MetricsExporter {
+  public static final String DOMAIN = "com.supernovapps.audio.jstreamsourcer";
+
+  private final MBeanServer server;
+  private final ConcurrentHashMap<String, ObjectName> names =
+      new ConcurrentHashMap<String, ObjectName>();
+
+  /**
+   * Instantiates an exporter to the platform MBean server.
+   */
+  public JmxMetricsExporter() {
+    this(ManagementFactory.getPlatformMBeanServer());
+  }
+
+  public JmxMetricsExporter(MBeanServer server) {
+    this.server = server;
+  }
+
+  public static ObjectName getObjectName(String name) throws JMException {
+    return new ObjectName(DOMAIN + ":type=Sourcer,name=" + ObjectName.quote(name));
+  }
+
+  @Override
+  public void register(String name, Sourcer sourcer) {
+    try {
+      ObjectName objectName = getObjectName(name);
+      server.registerMBean(new SourcerMetrics(sourcer), objectName);
+      names.put(name, objectName);
+    } catch (JMException e) {
+      throw new IllegalArgumentException("Cannot register " + name, e);
+    }
+  }
+
+  @Override
+  public void unregister(String name) {
+    ObjectName objectName = names.remove(name);
+    if (objectName == null) {
+      return;
+    }
+
+    try {
+      server.unregisterMBean(objectName);
+    } catch (JMException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Unregisters all the sourcers.
+   */
+  public void unregisterAll() {
+    for (String name : names.keySet()) {
+      unregister(name);
+    }
+  }
+
+  static class SourcerMetrics implements SourcerMetricsMXBean {
+    private final Sourcer sourcer;
+
+    SourcerMetrics(Sourcer sourcer) {
+      this.sourcer = sourcer;
+    }
+
+    private static double toMillis(long nanos) {
+      return nanos / 1e6;
+    }
+
+    @Override
+    public boolean isStarted() {
+      return sourcer.isStarted();
+    }
+
+    @Override
+    public long getBytesSent() {
+      return sourcer.metrics.getBytesSent();
+    }
+
+    @Override
+    public long getWrites() {
+      return sourcer.metrics.getWrites();
+    }
+
+    @Override
+    public long getFramesWritten() {
+      return sourcer.metrics.getFramesWritten();
+    }
+
+    @Override
+    public long getWriteErrors() {
+      return sourcer.metrics.getWriteErrors();
+    }
+
+    @Override
+    public long getThrottledWrites() {
+      return sourcer.metrics.getThrottledWrites();
+    }
+
+    @Override
+    public long getDroppedBuffers() {
+      return sourcer.metrics.getDroppedBuffers();
+    }
+
+    @Override
+    public int getQueueDepth() {
+      return sourcer.getQueueDepth();
+    }
+
+    @Override
+    public long getCurrentBitrate() {
+      return sourcer.metrics.getCurrentBitrate();
+    }
+
+    @Override
+    public long getTargetBitrate() {
+      return sourcer.metrics.getTargetBitrate();
+    }
+
+    @Override
+    public double getPacingWaitMillis() {
+      return toMillis(sourcer.metrics.getPacingWaitNanos());
+    }
+
+    @Override
+    public double getWriteLatencyP50Millis() {
+      return toMillis(sourcer.metrics.getWriteLatency().getPercentileNanos(50));
+    }
+
+    @Override
+    public double getWriteLatencyP99Millis() {
+      return toMillis(sourcer.metrics.getWriteLatency().getPercentileNanos(99));
+    }
+
+    @Override
+    public double getWriteLatencyMaxMillis() {
+      return toMillis(sourcer.metrics.getWriteLatency().getMaxNanos());
+    }
+
+    @Override
+    public long getConnectionAttempts() {
+      return sourcer.timings.getAttempts();
+    }
+
+    @Override
+    public long getConnectionFailures() {
+      return sourcer.timings.getFailures();
+    }
+
+    @Override
+    public double getHandshakeP99Millis() {
+      LatencyHistogram handshake = sourcer.timings.get(ConnectionTimings.HANDSHAKE);
+      return handshake != null ? toMillis(handshake.getPercentileNanos(99)) : 0;
+    }
+
+    @Override
+    public void resetMetrics() {
+      sourcer.metrics.reset();
+      sourcer.timings.reset();
+    }
+  }
+}
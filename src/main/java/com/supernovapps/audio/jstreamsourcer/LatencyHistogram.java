@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations, with buckets growing by powers of two from 1 microsecond, up to about
+ * 18 minutes.
+ *
+ * Recording is lock-free and does not allocate, so it can be done from the write path. The
+ * counters are read independently, a snapshot taken while recording may be off by the values
+ * being recorded.
+ */
+public class LatencyHistogram {
+  private static final int BUCKETS = 32;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Records a duration.
+   *
+   * @param nanos, the duration in nanoseconds, the negative ones being counted as 0
+   */
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+
+    buckets.incrementAndGet(getBucket(nanos));
+    count.incrementAndGet();
+    sum.addAndGet(nanos);
+
+    long current;
+    while (nanos > (current = max.get())) {
+      if (max.compareAndSet(current, nanos)) {
+        break;
+      }
+    }
+  }
+
+  static int getBucket(long nanos) {
+    long micros = nanos / 1000 + (nanos % 1000 != 0 ? 1 : 0);
+    if (micros <= 1) {
+      return 0;
+    }
+
+    return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros - 1));
+  }
+
+  public int getBucketCount() {
+    return BUCKETS;
+  }
+
+  /**
+   * Gets the upper bound of a bucket, the last one having none.
+   *
+   * @param bucket, the index of the bucket
+   * @return the bound in nanoseconds, Long.MAX_VALUE for the last bucket
+   */
+  public long getBucketBound(int bucket) {
+    return bucket < BUCKETS - 1 ? (1L << bucket) * 1000 : Long.MAX_VALUE;
+  }
+
+  /**
+   * Gets the number of durations recorded in a bucket, greater than the bound of the previous
+   * bucket and up to the bound of this one.
+   *
+   * @param bucket, the index of the bucket
+   * @return the number of durations
+   */
+  public long getBucketValue(int bucket) {
+    return buckets.get(bucket);
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getSumNanos() {
+    return sum.get();
+  }
+
+  public long getMaxNanos() {
+    return max.get();
+  }
+
+  /**
+   * Gets an upper bound of a percentile, the bound of the bucket holding it.
+   *
+   * @param percentile, between 0 and 100
+   * @return the bound in nanoseconds, 0 if nothing has been recorded
+   */
+  public long getPercentileNanos(double percentile) {
+    long total = count.get();
+    if (total == 0) {
+      return 0;
+    }
+
+    long rank = (long) Math.ceil(total * Math.max(0, Math.min(100, percentile)) / 100);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += buckets.get(i);
+      if (seen >= rank && seen > 0) {
+        return Math.min(getBucketBound(i), max.get());
+      }
+    }
+
+    return max.get();
+  }
+
+  /**
+   * Forgets all the recorded durations.
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets.set(i, 0);
+    }
+    count.set(0);
+    sum.set(0);
+    max.set(0);
+  }
+
+  /**
+   * Writes the histogram in the Prometheus text format, in seconds, with cumulative buckets.
+   *
+   * @param out, where to write
+   * @param name, the name of the metric
+   * @param labels, the labels, ex: step="connect", empty for none
+   */
+  public void writeText(StringBuilder out, String name, String labels) {
+    String prefix = labels.length() > 0 ? labels + "," : "";
+
+    long cumulative = 0;
+    for (int i = 0; i < BUCKETS - 1; i++) {
+      cumulative += buckets.get(i);
+      out.append(name).append("_bucket{").append(prefix).append("le=\"")
+          .append(formatSeconds(getBucketBound(i))).append("\"} ").append(cumulative)
+          .append('\n');
+    }
+    cumulative += buckets.get(BUCKETS - 1);
+    out.append(name).append("_bucket{").append(prefix).append("le=\"+Inf\"} ")
+        .append(cumulative).append('\n');
+
+    String braces = labels.length() > 0 ? "{" + labels + "}" : "";
+    out.append(name).append("_sum").append(braces).append(' ')
+        .append(formatSeconds(sum.get())).append('\n');
+    out.append(name).append("_count").append(braces).append(' ').append(count.get())
+        .append('\n');
+  }
+
+  private static String formatSeconds(long nanos) {
+    return String.format(Locale.ROOT, "%.6f", nanos / 1e9);
+  }
+}
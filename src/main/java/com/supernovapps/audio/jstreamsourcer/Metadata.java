@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Metadata of the track currently streamed, following the ID3v2 frames used by Ultravox: TIT2
+ * song, TPE1 artist, TALB album, TYER year, COMM comment, TCON genre, TENC encoder, TRSN station
+ * name and WORS station URL. An instance given to an asynchronous update should not be modified
+ * afterwards.
+ */
+public class Metadata {
+  private String song = null;
+  private String artist = null;
+  private String album = null;
+  private String year = null;
+  private String comment = null;
+  private String genre = null;
+  private String encoder = null;
+  private String station = null;
+  private String url = null;
+
+  private int duration = 0;
+
+  private LinkedHashMap<String, String> tags = new LinkedHashMap<String, String>();
+
+  public Metadata() {}
+
+  public Metadata(String song, String artist, String album) {
+    this.song = song;
+    this.artist = artist;
+    this.album = album;
+  }
+
+  public String getSong() {
+    return song;
+  }
+
+  public void setSong(String song) {
+    this.song = song;
+  }
+
+  public String getArtist() {
+    return artist;
+  }
+
+  public void setArtist(String artist) {
+    this.artist = artist;
+  }
+
+  public String getAlbum() {
+    return album;
+  }
+
+  public void setAlbum(String album) {
+    this.album = album;
+  }
+
+  public String getYear() {
+    return year;
+  }
+
+  public void setYear(String year) {
+    this.year = year;
+  }
+
+  public String getComment() {
+    return comment;
+  }
+
+  public void setComment(String comment) {
+    this.comment = comment;
+  }
+
+  public String getGenre() {
+    return genre;
+  }
+
+  public void setGenre(String genre) {
+    this.genre = genre;
+  }
+
+  public String getEncoder() {
+    return encoder;
+  }
+
+  public void setEncoder(String encoder) {
+    this.encoder = encoder;
+  }
+
+  /**
+   * Gets the name of the radio station, sent as TRSN.
+   *
+   * @return the station name
+   */
+  public String getStation() {
+    return station;
+  }
+
+  public void setStation(String station) {
+    this.station = station;
+  }
+
+  /**
+   * Gets the URL of the radio station, sent as WORS.
+   *
+   * @return the station URL
+   */
+  public String getUrl() {
+    return url;
+  }
+
+  public void setUrl(String url) {
+    this.url = url;
+  }
+
+  /**
+   * Gets the duration of the track.
+   *
+   * @return the duration in seconds, 0 if unknown
+   */
+  public int getDuration() {
+    return duration;
+  }
+
+  public void setDuration(int duration) {
+    this.duration = duration;
+  }
+
+  /**
+   * Gets a custom tag, as used by the metadata templates.
+   *
+   * @param name, the name of the tag
+   * @return the value, null if not set
+   */
+  public String getTag(String name) {
+    return tags.get(name);
+  }
+
+  /**
+   * Sets a custom tag, available to the metadata templates as _name_. The tags named as an ID3v2
+   * frame, ex: TCOP, are also sent in the Ultravox XML metadata.
+   *
+   * @param name, the name of the tag
+   * @param value, the value, null to remove it
+   */
+  public void setTag(String name, String value) {
+    if (value == null) {
+      tags.remove(name);
+    } else {
+      tags.put(name, value);
+    }
+  }
+
+  public Map<String, String> getTags() {
+    return tags;
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps only the latest metadata update of a Sourcer and sends it at most once per interval.
+ * The updates superseded before being sent are cancelled.
+ */
+class MetadataCoalescer implements Runnable {
+  private static ScheduledExecutorService timer = null;
+
+  private final Sourcer sourcer;
+  private final long intervalNanos;
+
+  private FutureTask<Boolean> pending = null;
+  private boolean scheduled = false;
+  private long lastSent = 0;
+  private boolean sent = false;
+  private long dropped = 0;
+
+  public MetadataCoalescer(Sourcer sourcer, long intervalMillis) {
+    this.sourcer = sourcer;
+    this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+  }
+
+  public long getIntervalMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(intervalNanos);
+  }
+
+  /**
+   * Queues an update in place of the pending one, if any.
+   *
+   * @param task, the update
+   */
+  public void submit(FutureTask<Boolean> task) {
+    long delay;
+
+    synchronized (this) {
+      if (pending != null) {
+        pending.cancel(false);
+        dropped++;
+      }
+      pending = task;
+
+      if (scheduled) {
+        return;
+      }
+      scheduled = true;
+
+      delay = sent ? lastSent + intervalNanos - System.nanoTime() : 0;
+    }
+
+    schedule(delay);
+  }
+
+  /**
+   * Sends the pending update, called once the interval has elapsed.
+   */
+  @Override
+  public void run() {
+    FutureTask<Boolean> task;
+
+    synchronized (this) {
+      task = pending;
+      pending = null;
+
+      if (task == null) {
+        scheduled = false;
+        return;
+      }
+
+      lastSent = System.nanoTime();
+      sent = true;
+    }
+
+    // only handed over, the timer is shared by all the sourcers and never waits for a send
+    try {
+      sourcer.getMetadataExecutor().execute(task);
+    } catch (RejectedExecutionException e) {
+      task.cancel(false);
+    }
+
+    schedule(intervalNanos);
+  }
+
+  /**
+   * Cancels the pending update.
+   */
+  public synchronized void clear() {
+    if (pending != null) {
+      pending.cancel(false);
+      pending = null;
+      dropped++;
+    }
+  }
+
+  public synchronized long getDropped() {
+    return dropped;
+  }
+
+  private void schedule(long delayNanos) {
+    if (delayNanos <= 0) {
+      run();
+    } else {
+      getTimer().schedule(this, delayNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private static synchronized ScheduledExecutorService getTimer() {
+    if (timer == null) {
+      timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "jstreamsourcer-metadata-timer");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+
+    return timer;
+  }
+}
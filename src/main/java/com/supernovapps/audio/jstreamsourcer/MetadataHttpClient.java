@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Pooled HTTP clients used for the metadata updates. All the sourcers share the default client
+ * unless another one is given to them, so that the connections to a server are kept alive and
+ * reused across the updates.
+ */
+public class MetadataHttpClient {
+  public static final int DEFAULT_MAX_TOTAL = 200;
+  public static final int DEFAULT_MAX_PER_ROUTE = 20;
+  public static final long DEFAULT_KEEP_ALIVE = 30000;
+
+  private static CloseableHttpClient defaultClient = null;
+
+  private MetadataHttpClient() {}
+
+  /**
+   * Gets the client shared by the sourcers, created on first use.
+   *
+   * @return the shared client
+   */
+  public static synchronized HttpClient getDefault() {
+    if (defaultClient == null) {
+      defaultClient = create(DEFAULT_MAX_TOTAL, DEFAULT_MAX_PER_ROUTE, DEFAULT_KEEP_ALIVE);
+    }
+
+    return defaultClient;
+  }
+
+  /**
+   * Closes the shared client and its pooled connections, a new one is created on next use.
+   */
+  public static synchronized void shutdownDefault() {
+    if (defaultClient != null) {
+      try {
+        defaultClient.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      defaultClient = null;
+    }
+  }
+
+  /**
+   * Creates a pooled client.
+   *
+   * @param maxTotal, the maximum number of connections
+   * @param maxPerRoute, the maximum number of connections to a same server
+   * @param keepAlive, how long an idle connection is kept, in milliseconds, when the server does
+   * not tell
+   * @return the client, to be closed by the caller
+   */
+  public static CloseableHttpClient create(int maxTotal, int maxPerRoute, final long keepAlive) {
+    PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager();
+    manager.setMaxTotal(maxTotal);
+    manager.setDefaultMaxPerRoute(maxPerRoute);
+
+    ConnectionKeepAliveStrategy keepAliveStrategy = new DefaultConnectionKeepAliveStrategy() {
+      @Override
+      public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+        long duration = super.getKeepAliveDuration(response, context);
+        return duration > 0 ? duration : keepAlive;
+      }
+    };
+
+    return HttpClients.custom().setConnectionManager(manager)
+        .setKeepAliveStrategy(keepAliveStrategy).setUserAgent(Sourcer.USER_AGENT).build();
+  }
+
+  /**
+   * Executes a request and consumes its response, so that the connection goes back to the pool.
+   *
+   * @param client, the client to use
+   * @param request, the request
+   * @return the status code of the response
+   */
+  public static int execute(HttpClient client, HttpUriRequest request) throws IOException {
+    HttpResponse response = client.execute(request);
+    try {
+      EntityUtils.consume(response.getEntity());
+      return response.getStatusLine().getStatusCode();
+    } finally {
+      if (response instanceof Closeable) {
+        ((Closeable) response).close();
+      }
+    }
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Metadata template compiled once in literal and field segments, ex: "_artist_ - _song_".
+ *
+ * The fields are _song_, _artist_, _album_, _year_, _duration_ (m:ss) and any other _name_ taken
+ * from the custom tags of the metadata. A missing value renders as an empty text.
+ */
+public class MetadataTemplate {
+  public static final String DEFAULT_TEMPLATE = "_album_ _song_ _artist_";
+
+  private static final int LITERAL = 0;
+  private static final int SONG = 1;
+  private static final int ARTIST = 2;
+  private static final int ALBUM = 3;
+  private static final int YEAR = 4;
+  private static final int DURATION = 5;
+  private static final int TAG = 6;
+
+  private final String template;
+
+  private final int[] kinds;
+  private final String[] texts;
+  private final byte[][] encodedTexts;
+
+  /**
+   * Compiles a template.
+   *
+   * @param template, the template text
+   */
+  public MetadataTemplate(String template) {
+    this.template = template;
+
+    List<Integer> kindList = new ArrayList<Integer>();
+    List<String> textList = new ArrayList<String>();
+
+    StringBuilder literal = new StringBuilder();
+
+    int i = 0;
+    while (i < template.length()) {
+      char c = template.charAt(i);
+
+      int end = c == '_' ? getFieldEnd(template, i + 1) : -1;
+      if (end == -1) {
+        literal.append(c);
+        i++;
+        continue;
+      }
+
+      if (literal.length() > 0) {
+        kindList.add(LITERAL);
+        textList.add(literal.toString());
+        literal.setLength(0);
+      }
+
+      String name = template.substring(i + 1, end);
+      kindList.add(getKind(name));
+      textList.add(name);
+
+      i = end + 1;
+    }
+
+    if (literal.length() > 0) {
+      kindList.add(LITERAL);
+      textList.add(literal.toString());
+    }
+
+    kinds = new int[kindList.size()];
+    for (int k = 0; k < kinds.length; k++) {
+      kinds[k] = kindList.get(k);
+    }
+    texts = textList.toArray(new String[textList.size()]);
+
+    encodedTexts = new byte[texts.length][];
+    UrlEncodedBuffer buffer = new UrlEncodedBuffer(template.length() * 3);
+    for (int k = 0; k < texts.length; k++) {
+      if (kinds[k] == LITERAL) {
+        encodedTexts[k] = buffer.reset().appendEncoded(texts[k]).toByteArray();
+      }
+    }
+  }
+
+  private static int getFieldEnd(String template, int start) {
+    int i = start;
+    while (i < template.length()) {
+      char c = template.charAt(i);
+      if (c == '_') {
+        return i > start ? i : -1;
+      }
+      if (!Character.isLetterOrDigit(c) && c != '-') {
+        return -1;
+      }
+      i++;
+    }
+
+    return -1;
+  }
+
+  private static int getKind(String name) {
+    if ("song".equals(name)) {
+      return SONG;
+    } else if ("artist".equals(name)) {
+      return ARTIST;
+    } else if ("album".equals(name)) {
+      return ALBUM;
+    } else if ("year".equals(name)) {
+      return YEAR;
+    } else if ("duration".equals(name)) {
+      return DURATION;
+    }
+    return TAG;
+  }
+
+  public String getTemplate() {
+    return template;
+  }
+
+  /**
+   * Renders the template.
+   *
+   * @param metadata, the metadata
+   * @return the rendered text
+   */
+  public String render(Metadata metadata) {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < kinds.length; i++) {
+      String value = getValue(i, metadata);
+      if (value != null) {
+        result.append(value);
+      }
+    }
+
+    return result.toString();
+  }
+
+  /**
+   * Renders the template URL-encoded at the end of the given buffer.
+   *
+   * @param metadata, the metadata
+   * @param out, the buffer
+   */
+  void render(Metadata metadata, UrlEncodedBuffer out) {
+    for (int i = 0; i < kinds.length; i++) {
+      if (kinds[i] == LITERAL) {
+        out.append(encodedTexts[i]);
+      } else {
+        out.appendEncoded(getValue(i, metadata));
+      }
+    }
+  }
+
+  private String getValue(int segment, Metadata metadata) {
+    switch (kinds[segment]) {
+      case LITERAL:
+        return texts[segment];
+      case SONG:
+        return metadata.getSong();
+      case ARTIST:
+        return metadata.getArtist();
+      case ALBUM:
+        return metadata.getAlbum();
+      case YEAR:
+        return metadata.getYear();
+      case DURATION:
+        int duration = metadata.getDuration();
+        if (duration <= 0) {
+          return null;
+        }
+        int seconds = duration % 60;
+        return (duration / 60) + (seconds < 10 ? ":0" : ":") + seconds;
+      default:
+        return metadata.getTag(texts[segment]);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return template;
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+/**
+ * Publishes the metrics of sourcers to a monitoring system.
+ *
+ * @see JmxMetricsExporter
+ */
+public interface MetricsExporter {
+
+  /**
+   * Starts publishing the metrics of a sourcer.
+   *
+   * @param name, the name identifying the sourcer, ex: primary, backup
+   * @param sourcer, the sourcer
+   */
+  void register(String name, Sourcer sourcer);
+
+  /**
+   * Stops publishing the metrics of a sourcer.
+   *
+   * @param name, the name given on registration
+   */
+  void unregister(String name);
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.supernovapps.audio.jstreamsourcer.SharedRing.Chunk;
+import com.supernovapps.audio.jstreamsourcer.SharedRing.Cursor;
+
+/**
+ * Sends the same stream to several servers, ex: a primary Icecast, a backup one and a
+ * ShoutcastV2 relay.
+ *
+ * The data written are copied once into a ring shared by all the sourcers. Each sourcer is fed
+ * by its own thread, at its own pace, through its usual write: a slow or stalled server does not
+ * block the writer nor the other servers, it only skips the oldest buffers once it is a whole
+ * ring behind.
+ */
+public class MultiSourcer {
+  private static final AtomicInteger THREAD_ID = new AtomicInteger();
+
+  private final SharedRing ring;
+  private final ConcurrentHashMap<Sourcer, Output> outputs =
+      new ConcurrentHashMap<Sourcer, Output>();
+
+  /**
+   * Instantiates a new fan-out.
+   *
+   * @param capacity, the number of buffers a sourcer may be behind before skipping some
+   */
+  public MultiSourcer(int capacity) {
+    ring = new SharedRing(capacity);
+  }
+
+  /**
+   * Adds a sourcer, fed from the next buffer written. The sourcer is started and stopped as
+   * usual, the data written while it is not started are ignored.
+   *
+   * @param sourcer, the sourcer to feed
+   */
+  public void addSourcer(Sourcer sourcer) {
+    Output output = new Output(sourcer, ring.open());
+    if (outputs.putIfAbsent(sourcer, output) != null) {
+      ring.close(output.cursor);
+      return;
+    }
+
+    output.thread.start();
+  }
+
+  /**
+   * Removes a sourcer, the buffers it has not sent yet are dropped.
+   *
+   * @param sourcer, the sourcer to remove
+   */
+  public void removeSourcer(Sourcer sourcer) {
+    Output output = outputs.remove(sourcer);
+    if (output != null) {
+      ring.close(output.cursor);
+    }
+  }
+
+  public List<Sourcer> getSourcers() {
+    return new ArrayList<Sourcer>(outputs.keySet());
+  }
+
+  /**
+   * Writes audio data to all the sourcers.
+   *
+   * @param data, buffer of data
+   * @param size, the size of the data buffer
+   */
+  public void write(byte[] data, int size) {
+    if (size <= 0) {
+      return;
+    }
+
+    ring.offer(data, 0, size);
+  }
+
+  /**
+   * Gets the number of buffers a sourcer has still to send.
+   *
+   * @param sourcer, the sourcer
+   * @return the number of buffers, 0 if the sourcer is not part of the fan-out
+   */
+  public int getLag(Sourcer sourcer) {
+    Output output = outputs.get(sourcer);
+    return output != null ? ring.getLag(output.cursor) : 0;
+  }
+
+  /**
+   * Gets the number of buffers a sourcer has skipped because it was too slow.
+   *
+   * @param sourcer, the sourcer
+   * @return the number of buffers, 0 if the sourcer is not part of the fan-out
+   */
+  public long getDroppedBuffers(Sourcer sourcer) {
+    Output output = outputs.get(sourcer);
+    return output != null ? ring.getDropped(output.cursor) : 0;
+  }
+
+  /**
+   * Stops feeding all the sourcers, the buffers not sent yet are dropped. The sourcers are not
+   * stopped.
+   */
+  public void shutdown() {
+    outputs.clear();
+    ring.close();
+  }
+
+  private class Output implements Runnable {
+    private final Sourcer sourcer;
+    private final Cursor cursor;
+    private final Thread thread;
+
+    public Output(Sourcer sourcer, Cursor cursor) {
+      this.sourcer = sourcer;
+      this.cursor = cursor;
+
+      thread = new Thread(this, "jstreamsourcer-fanout-" + THREAD_ID.incrementAndGet());
+      thread.setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      Chunk chunk;
+
+      try {
+        while ((chunk = ring.take(cursor)) != null) {
+          try {
+            sourcer.write(chunk.data, chunk.size);
+          } finally {
+            ring.release(chunk);
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
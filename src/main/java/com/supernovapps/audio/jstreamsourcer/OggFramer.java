@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.io.ByteArrayOutputStream;
+
+import com.supernovapps.audio.jstreamsourcer.audio.OggPage;
+
+/**
+ * Buffers the Ogg stream written to a Sourcer and only hands whole pages over to it.
+ *
+ * The header pages of the current logical stream, the pages from the beginning of stream one up
+ * to the first page carrying audio, are kept so that they can be sent again when reconnecting:
+ * a listener cannot decode the stream without them.
+ */
+class OggFramer implements AudioFramer {
+  private final Sourcer sourcer;
+
+  private byte[] buffer = new byte[16384];
+  private int start = 0;
+  private int end = 0;
+
+  private ByteArrayOutputStream headers = new ByteArrayOutputStream();
+  private boolean capturing = false;
+
+  public OggFramer(Sourcer sourcer) {
+    this.sourcer = sourcer;
+  }
+
+  @Override
+  public void write(byte[] data, int offset, int size) {
+    append(data, offset, size);
+
+    int maxRun = sourcer.getMaxFrameRun();
+
+    int run = start;
+    int pos = start;
+    int pages = 0;
+    while (pos < end) {
+      int length = OggPage.getLength(buffer, pos, end - pos);
+      if (length < 0) {
+        emit(run, pos);
+        run = ++pos;
+        continue;
+      }
+
+      if (length == 0 || end - pos < length) {
+        break;
+      }
+
+      capture(pos, length);
+
+      if (pos > run && pos + length - run > maxRun) {
+        emit(run, pos);
+        run = pos;
+      }
+      pos += length;
+      pages++;
+    }
+
+    emit(run, pos);
+    start = pos;
+
+    sourcer.metrics.framesWritten(pages);
+  }
+
+  private void capture(int pos, int length) {
+    if (OggPage.isBeginningOfStream(buffer, pos)) {
+      if (!capturing) {
+        headers.reset();
+      }
+      capturing = true;
+    } else if (capturing && OggPage.getGranulePosition(buffer, pos) != 0) {
+      capturing = false;
+    }
+
+    if (capturing) {
+      headers.write(buffer, pos, length);
+    }
+  }
+
+  /**
+   * Gets the header pages of the current logical stream.
+   *
+   * @return the pages, empty if none has been written yet
+   */
+  public byte[] getHeaders() {
+    return headers.toByteArray();
+  }
+
+  @Override
+  public void reset() {
+    start = 0;
+    end = 0;
+  }
+
+  private void emit(int from, int to) {
+    if (to > from) {
+      sourcer.writeData(buffer, from, to - from);
+    }
+  }
+
+  private void append(byte[] data, int offset, int size) {
+    int remaining = end - start;
+    if (end + size > buffer.length) {
+      if (remaining + size > buffer.length) {
+        byte[] grown = new byte[Math.max(buffer.length * 2, remaining + size)];
+        System.arraycopy(buffer, start, grown, 0, remaining);
+        buffer = grown;
+      } else {
+        System.arraycopy(buffer, start, buffer, 0, remaining);
+      }
+      start = 0;
+      end = remaining;
+    }
+
+    System.arraycopy(data, offset, buffer, end, size);
+    end += size;
+  }
+}
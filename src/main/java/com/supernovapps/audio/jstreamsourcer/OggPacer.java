@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import com.supernovapps.audio.jstreamsourcer.audio.OggPage;
+
+/**
+ * Pacer for Ogg streams (Opus, Vorbis) using the granule positions of the pages, the number of
+ * samples decoded up to the end of the page, instead of a nominal bitrate.
+ *
+ * The duration of a page is the difference between its granule position and the one of the
+ * previous page. The sample rate is read from the identification header of the beginning of
+ * stream pages, 48000 Hz being used for the unknown codecs. The first audio page of a stream, or
+ * the first one after a reset or a granule position going backward, only gives the baseline: the
+ * header pages sent again on reconnection are followed by pages far from the start of stream.
+ */
+public class OggPacer extends ClockPacer {
+  private static final int DEFAULT_SAMPLE_RATE = 48000;
+
+  // page header, segment table and the start of the identification header
+  private final byte[] page = new byte[OggPage.HEADER_SIZE + 255 + 16];
+  private int pageLen = 0;
+  private int skip = 0;
+
+  private int sampleRate = DEFAULT_SAMPLE_RATE;
+  private boolean known = false;
+  private long last = 0;
+  private long carry = 0;
+
+  /**
+   * Instantiates a new Ogg pacer.
+   *
+   * @param burst, number of milliseconds of audio that may be sent without waiting
+   */
+  public OggPacer(int burst) {
+    super(burst * 1000000L);
+  }
+
+  @Override
+  protected long getDurationNanos(byte[] data, int offset, int size) {
+    long duration = 0;
+    int end = offset + size;
+
+    while (offset < end) {
+      if (skip > 0) {
+        int len = Math.min(skip, end - offset);
+        skip -= len;
+        offset += len;
+        continue;
+      }
+
+      int length = OggPage.getLength(page, 0, pageLen);
+      if (length < 0) {
+        shift(1);
+        continue;
+      }
+
+      int needed;
+      if (length == 0) {
+        needed = pageLen < OggPage.HEADER_SIZE ? OggPage.HEADER_SIZE
+            : OggPage.getDataOffset(page, 0);
+      } else {
+        needed = Math.min(length, page.length);
+      }
+
+      if (pageLen < needed) {
+        int len = Math.min(needed - pageLen, end - offset);
+        System.arraycopy(data, offset, page, pageLen, len);
+        pageLen += len;
+        offset += len;
+        continue;
+      }
+
+      duration += getPageDurationNanos();
+
+      skip = length - pageLen;
+      pageLen = 0;
+    }
+
+    return duration;
+  }
+
+  private long getPageDurationNanos() {
+    if (OggPage.isBeginningOfStream(page, 0)) {
+      int rate = OggPage.getSampleRate(page, 0, pageLen);
+      sampleRate = rate > 0 ? rate : DEFAULT_SAMPLE_RATE;
+      carry = 0;
+      known = false;
+    }
+
+    long granule = OggPage.getGranulePosition(page, 0);
+    // header pages, or pages without any packet ending on them
+    if (granule == 0 || granule == OggPage.NO_GRANULE) {
+      return 0;
+    }
+
+    if (!known || granule < last) {
+      known = true;
+      last = granule;
+      return 0;
+    }
+
+    long total = (granule - last) * NANOS_PER_SECOND + carry;
+    carry = total % sampleRate;
+    last = granule;
+
+    return total / sampleRate;
+  }
+
+  private void shift(int len) {
+    pageLen -= len;
+    System.arraycopy(page, len, page, 0, pageLen);
+  }
+
+  @Override
+  public synchronized void reset() {
+    super.reset();
+
+    pageLen = 0;
+    skip = 0;
+    known = false;
+    carry = 0;
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+/**
+ * What to do with a buffer written while the asynchronous write queue is full.
+ */
+public enum OverflowPolicy {
+  /**
+   * The writer waits until the I/O thread has made room in the queue.
+   */
+  BLOCK,
+
+  /**
+   * The oldest queued buffer is dropped to make room for the new one.
+   */
+  DROP_OLDEST,
+
+  /**
+   * The new buffer is dropped, the queued ones are kept.
+   */
+  DROP_NEWEST
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package com.supernovapps.audio.jstreamsourcer;
+
+/**
+ * Decides when the data written to a Sourcer may be sent to the server.
+ */
+public interface Pacer {
+
+  /**
+   * Accounts for the given data and gives the time to wait before sending them.
+   *
+   * @param data, buffer of data about to be sent
+   * @param offset, the offset of the data in the buffer
+   * @param size, the size of the data
+   * @return the time to wait, in nanoseconds, 0 or less to send them right away
+   */
+  long getWaitNanos(byte[] data, int offset, int size);
+
+  /**
+   * Forgets all the data accounted so far, called when a new connection is started.
+   */
+  void reset();
+}
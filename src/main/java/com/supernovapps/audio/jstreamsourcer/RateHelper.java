@@ -16,7 +16,13 @@
 
 package com.supernovapps.audio.jstreamsourcer;
 
-public class RateHelper {
+/**
+ * Millisecond based rate limiter, kept for compatibility.
+ *
+ * @deprecated replaced by TokenBucketPacer, which is the default pacer of the sourcers
+ */
+@Deprecated
+public class RateHelper implements Pacer {
 
   private long burst = 0;
   private float kBps = 0;
@@ -50,4 +56,15 @@ public class RateHelper {
 
     return t - r - burst;
   }
+
+  @Override
+  public long getWaitNanos(byte[] data, int offset, int size) {
+    return getWaitTime(size) * 1000000L;
+  }
+
+  @Override
+  public void reset() {
+    written = 0;
+    startedAt = 0;
+  }
 }
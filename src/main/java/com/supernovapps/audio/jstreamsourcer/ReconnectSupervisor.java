@@ -0,0 +1,413 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Restarts a sourcer whose connection has been lost while writing.
+ *
+ * The reconnection is attempted from a dedicated thread, with an exponential backoff: the delay
+ * is multiplied after each failed attempt, up to a maximum, and a random part of it is removed so
+ * that many sourcers losing the same server do not all come back at once. During the outage, the
+ * data written are kept in a buffer holding the last seconds of audio. Once reconnected, they are
+ * either replayed, the listeners missing nothing but staying behind live by the outage, or
+ * dropped to go back to live. The stages are reported to the listener of the sourcer when it is
+ * an OnReconnectListener.
+ *
+ * Stopping the sourcer cancels the reconnection. A sourcer driven by a SourcerEngine is
+ * reconnected too, but through start(), so with a blocking Socket: it leaves the engine and is not
+ * registered with it again.
+ */
+public class ReconnectSupervisor {
+  private static final AtomicInteger THREAD_ID = new AtomicInteger();
+
+  private static final int REPLAY_CHUNK_SIZE = 16 * 1024;
+
+  public enum ResumeMode {
+    /**
+     * The audio buffered during the outage is sent once reconnected.
+     */
+    REPLAY,
+
+    /**
+     * The audio buffered during the outage is dropped, the stream goes back to live.
+     */
+    SKIP_TO_LIVE
+  }
+
+  private volatile long initialDelay = 500;
+  private volatile long maxDelay = 30000;
+  private volatile double multiplier = 2.0;
+  private volatile double jitter = 0.5;
+  private volatile int maxAttempts = 0;
+  private volatile int bufferSeconds = 10;
+  private volatile ResumeMode resumeMode = ResumeMode.REPLAY;
+
+  private final Random random = new Random();
+
+  private Sourcer sourcer = null;
+
+  private byte[] buffer = new byte[0];
+  private int bufferStart = 0;
+  private int bufferCount = 0;
+  private long droppedBytes = 0;
+  private boolean buffering = false;
+
+  private Thread thread = null;
+  private int generation = 0;
+
+  synchronized void attach(Sourcer sourcer) {
+    if (this.sourcer != null && this.sourcer != sourcer) {
+      throw new IllegalStateException("Supervisor already attached to another sourcer");
+    }
+
+    this.sourcer = sourcer;
+  }
+
+  synchronized void detach() {
+    cancel();
+    sourcer = null;
+  }
+
+  /**
+   * Starts reconnecting, called once the lost connection has been stopped.
+   *
+   * @param error, the reason of the loss
+   */
+  void connectionLost(String error) {
+    final int current;
+    synchronized (this) {
+      if (sourcer == null || thread != null) {
+        return;
+      }
+
+      int capacity = (int) Math.min(Integer.MAX_VALUE - 8, bufferSeconds * sourcer.kbps * 125L);
+      if (buffer.length != capacity) {
+        buffer = new byte[capacity];
+      }
+      bufferStart = 0;
+      bufferCount = 0;
+      droppedBytes = 0;
+      buffering = true;
+
+      current = ++generation;
+      thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          reconnect(current);
+        }
+      }, "jstreamsourcer-reconnect-" + THREAD_ID.incrementAndGet());
+      thread.setDaemon(true);
+    }
+
+    OnReconnectListener l = getListener();
+    if (l != null) {
+      l.onConnectionLost(error);
+    }
+
+    synchronized (this) {
+      if (current == generation) {
+        thread.start();
+      }
+    }
+  }
+
+  /**
+   * Stops reconnecting and drops the buffered audio, called when the sourcer is stopped.
+   */
+  synchronized void cancel() {
+    generation++;
+    buffering = false;
+    bufferCount = 0;
+
+    if (thread != null && thread != Thread.currentThread()) {
+      thread.interrupt();
+    }
+    thread = null;
+  }
+
+  /**
+   * Buffers the data written during an outage.
+   *
+   * @return true if the data has been buffered, false if the sourcer is connected
+   */
+  synchronized boolean offer(byte[] data, int size) {
+    if (!buffering) {
+      return false;
+    }
+
+    if (buffer.length == 0) {
+      droppedBytes += size;
+      return true;
+    }
+
+    if (size > buffer.length) {
+      droppedBytes += size - buffer.length;
+      data = Arrays.copyOfRange(data, size - buffer.length, size);
+      size = buffer.length;
+    }
+
+    int overflow = bufferCount + size - buffer.length;
+    if (overflow > 0) {
+      bufferStart = (bufferStart + overflow) % buffer.length;
+      bufferCount -= overflow;
+      droppedBytes += overflow;
+    }
+
+    int end = (bufferStart + bufferCount) % buffer.length;
+    int first = Math.min(size, buffer.length - end);
+    System.arraycopy(data, 0, buffer, end, first);
+    System.arraycopy(data, first, buffer, 0, size - first);
+    bufferCount += size;
+
+    return true;
+  }
+
+  /**
+   * Checks if the sourcer is being reconnected.
+   *
+   * @return true during an outage
+   */
+  public synchronized boolean isReconnecting() {
+    return buffering;
+  }
+
+  /**
+   * Gets the number of bytes of audio buffered during the current outage.
+   *
+   * @return the buffered bytes
+   */
+  public synchronized int getBufferedBytes() {
+    return bufferCount;
+  }
+
+  private void reconnect(int current) {
+    long delay = initialDelay;
+    int attempt = 0;
+
+    while (true) {
+      if (maxAttempts > 0 && attempt >= maxAttempts) {
+        giveUp(current, attempt);
+        return;
+      }
+      attempt++;
+
+      long wait = getJitteredDelay(delay);
+
+      OnReconnectListener l = getListener();
+      if (l != null) {
+        l.onReconnecting(attempt, wait);
+      }
+
+      try {
+        Thread.sleep(wait);
+      } catch (InterruptedException e) {
+        return;
+      }
+
+      Sourcer s;
+      synchronized (this) {
+        if (current != generation) {
+          return;
+        }
+        s = sourcer;
+      }
+
+      if (s.start()) {
+        resume(current, s, attempt);
+        return;
+      }
+
+      delay = Math.min((long) (delay * multiplier), maxDelay);
+    }
+  }
+
+  long getJitteredDelay(long delay) {
+    double j = Math.max(0, Math.min(1, jitter));
+    synchronized (random) {
+      return delay - (long) (delay * j * random.nextDouble());
+    }
+  }
+
+  private void resume(int current, Sourcer s, int attempts) {
+    long replayed = 0;
+    long dropped;
+
+    if (resumeMode == ResumeMode.SKIP_TO_LIVE) {
+      synchronized (this) {
+        if (current != generation) {
+          return;
+        }
+        dropped = droppedBytes + bufferCount;
+        finish();
+      }
+    } else {
+      byte[] chunk = new byte[REPLAY_CHUNK_SIZE];
+      while (true) {
+        int len;
+        synchronized (this) {
+          if (current != generation) {
+            return;
+          }
+
+          if (bufferCount == 0) {
+            dropped = droppedBytes;
+            finish();
+            break;
+          }
+
+          len = Math.min(chunk.length, Math.min(bufferCount, buffer.length - bufferStart));
+          System.arraycopy(buffer, bufferStart, chunk, 0, len);
+          bufferStart = (bufferStart + len) % buffer.length;
+          bufferCount -= len;
+        }
+
+        s.writeAudio(chunk, len);
+        replayed += len;
+      }
+    }
+
+    OnReconnectListener l = getListener();
+    if (l != null) {
+      l.onReconnected(attempts, replayed, dropped);
+    }
+  }
+
+  private void giveUp(int current, int attempts) {
+    synchronized (this) {
+      if (current != generation) {
+        return;
+      }
+      finish();
+    }
+
+    OnReconnectListener l = getListener();
+    if (l != null) {
+      l.onReconnectFailed(attempts);
+    }
+  }
+
+  private void finish() {
+    buffering = false;
+    bufferCount = 0;
+    thread = null;
+  }
+
+  private synchronized OnReconnectListener getListener() {
+    if (sourcer == null) {
+      return null;
+    }
+
+    OnSourcerListener l = sourcer.listener;
+    return l instanceof OnReconnectListener ? (OnReconnectListener) l : null;
+  }
+
+  public long getInitialDelay() {
+    return initialDelay;
+  }
+
+  /**
+   * Sets the delay before the first reconnection attempt.
+   *
+   * @param initialDelay, the delay in milliseconds
+   */
+  public void setInitialDelay(long initialDelay) {
+    this.initialDelay = initialDelay;
+  }
+
+  public long getMaxDelay() {
+    return maxDelay;
+  }
+
+  /**
+   * Sets the maximum delay between two reconnection attempts.
+   *
+   * @param maxDelay, the delay in milliseconds
+   */
+  public void setMaxDelay(long maxDelay) {
+    this.maxDelay = maxDelay;
+  }
+
+  public double getMultiplier() {
+    return multiplier;
+  }
+
+  /**
+   * Sets the factor applied to the delay after each failed attempt.
+   *
+   * @param multiplier, the factor, ex: 2 to double the delay
+   */
+  public void setMultiplier(double multiplier) {
+    this.multiplier = multiplier;
+  }
+
+  public double getJitter() {
+    return jitter;
+  }
+
+  /**
+   * Sets the random part of the delays.
+   *
+   * @param jitter, between 0, for fixed delays, and 1, for delays anywhere up to the backoff
+   */
+  public void setJitter(double jitter) {
+    this.jitter = jitter;
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  /**
+   * Sets the number of attempts before giving up.
+   *
+   * @param maxAttempts, the number of attempts, 0 to never give up
+   */
+  public void setMaxAttempts(int maxAttempts) {
+    this.maxAttempts = maxAttempts;
+  }
+
+  public int getBufferSeconds() {
+    return bufferSeconds;
+  }
+
+  /**
+   * Sets the duration of audio kept during an outage, at the bitrate of the sourcer. The oldest
+   * audio is dropped beyond.
+   *
+   * @param bufferSeconds, the duration in seconds
+   */
+  public void setBufferSeconds(int bufferSeconds) {
+    this.bufferSeconds = bufferSeconds;
+  }
+
+  public ResumeMode getResumeMode() {
+    return resumeMode;
+  }
+
+  /**
+   * Sets what is done with the audio buffered during an outage once reconnected.
+   *
+   * @param resumeMode, REPLAY or SKIP_TO_LIVE
+   */
+  public void setResumeMode(ResumeMode resumeMode) {
+    this.resumeMode = resumeMode;
+  }
+}
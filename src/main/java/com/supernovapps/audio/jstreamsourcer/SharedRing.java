@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded ring buffer of byte chunks between one writer and several readers, each reading all the
+ * chunks at its own pace.
+ *
+ * A chunk is copied once and counts the readers which have not consumed it yet. The writer never
+ * waits: when the ring is full, the readers still behind the oldest chunk skip it. A chunk still
+ * referenced when its slot is needed again, because a reader is sending it, is left to that
+ * reader and replaced by a new one in the ring.
+ */
+class SharedRing {
+
+  static class Chunk {
+    byte[] data;
+    int size;
+    int refs;
+  }
+
+  /**
+   * Position of a reader in the ring.
+   */
+  static class Cursor {
+    private long next;
+    private long dropped = 0;
+    private boolean closed = false;
+  }
+
+  private final Chunk[] slots;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+
+  private final List<Cursor> cursors = new ArrayList<Cursor>();
+
+  private long tail = 0;
+  private boolean closed = false;
+
+  public SharedRing(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+
+    slots = new Chunk[capacity];
+    for (int i = 0; i < capacity; i++) {
+      slots[i] = new Chunk();
+    }
+  }
+
+  /**
+   * Adds a reader, starting with the next chunk written.
+   *
+   * @return the cursor of the reader
+   */
+  public Cursor open() {
+    lock.lock();
+    try {
+      Cursor cursor = new Cursor();
+      cursor.next = tail;
+      cursor.closed = closed;
+      if (!closed) {
+        cursors.add(cursor);
+      }
+      return cursor;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Removes a reader, releasing the chunks it has not read and waking it up.
+   */
+  public void close(Cursor cursor) {
+    lock.lock();
+    try {
+      if (!cursors.remove(cursor)) {
+        return;
+      }
+
+      for (long seq = cursor.next; seq < tail; seq++) {
+        slots[(int) (seq % slots.length)].refs--;
+      }
+      cursor.next = tail;
+      cursor.closed = true;
+
+      notEmpty.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Copies the given data into the ring, for all the current readers.
+   */
+  public void offer(byte[] data, int offset, int size) {
+    lock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+
+      int index = (int) (tail % slots.length);
+      if (tail >= slots.length) {
+        long oldest = tail - slots.length;
+        for (Cursor cursor : cursors) {
+          if (cursor.next <= oldest) {
+            cursor.next = oldest + 1;
+            cursor.dropped++;
+            slots[index].refs--;
+          }
+        }
+      }
+
+      Chunk chunk = slots[index];
+      if (chunk.refs > 0) {
+        chunk = new Chunk();
+        slots[index] = chunk;
+      }
+
+      if (chunk.data == null || chunk.data.length < size) {
+        chunk.data = new byte[size];
+      }
+      System.arraycopy(data, offset, chunk.data, 0, size);
+      chunk.size = size;
+      chunk.refs = cursors.size();
+
+      tail++;
+
+      notEmpty.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Takes the next chunk of a reader, waiting for one if it has read them all. The chunk is not
+   * overwritten until it is released.
+   *
+   * @return the next chunk or null if the reader or the ring has been closed
+   */
+  public Chunk take(Cursor cursor) throws InterruptedException {
+    lock.lock();
+    try {
+      while (!cursor.closed && cursor.next == tail) {
+        notEmpty.await();
+      }
+
+      if (cursor.closed) {
+        return null;
+      }
+
+      return slots[(int) (cursor.next++ % slots.length)];
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Gives back a chunk returned by take.
+   */
+  public void release(Chunk chunk) {
+    lock.lock();
+    try {
+      chunk.refs--;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Drops all the chunks and wakes up the readers.
+   */
+  public void close() {
+    lock.lock();
+    try {
+      closed = true;
+
+      for (Cursor cursor : cursors) {
+        cursor.closed = true;
+      }
+      cursors.clear();
+
+      notEmpty.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getCapacity() {
+    return slots.length;
+  }
+
+  /**
+   * Gets the number of chunks a reader has still to read.
+   */
+  public int getLag(Cursor cursor) {
+    lock.lock();
+    try {
+      return (int) (tail - cursor.next);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Gets the number of chunks a reader has skipped because it was too slow.
+   */
+  public long getDropped(Cursor cursor) {
+    lock.lock();
+    try {
+      return cursor.dropped;
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -22,15 +22,11 @@ import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.channels.SocketChannel;
 import java.util.Map.Entry;
 
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.impl.client.HttpClientBuilder;
 
 public class ShoutcastV1 extends Sourcer {
   private String host = null;
@@ -38,27 +34,40 @@ public class ShoutcastV1 extends Sourcer {
 
   private String password = null;
 
-  private Socket sock = null;
-
-  private String metadataTemplate = "_album_ _song_ _artist_";
+  private final UrlEncodedBuffer urlBuffer = new UrlEncodedBuffer(256);
 
   public ShoutcastV1(int kbps, int burst) {
     super(kbps, burst);
   }
 
   public boolean start(Socket sock) {
+    return start(new SocketTransport(sock));
+  }
+
+  public boolean start(SocketChannel channel) {
+    return start(new ChannelTransport(channel));
+  }
+
+  public boolean start(Transport transport) {
+    resetWriteState();
+
+    long begin = timings.beginAttempt();
     try {
-      this.sock = sock;
-      sock.connect(new InetSocketAddress(host, port), 5000);
-      sock.setSendBufferSize(64 * 1024);
-      out = sock.getOutputStream();
+      this.transport = transport;
+      transport.connect(new InetSocketAddress(host, port), timeout, sendBufferSize);
+      long sent = timings.record(ConnectionTimings.CONNECT, begin);
 
       PrintWriter output = writeAuthentication();
 
-      InputStreamReader isr = new InputStreamReader(sock.getInputStream());
+      InputStreamReader isr = new InputStreamReader(transport.getInputStream());
       BufferedReader in = new BufferedReader(isr);
       String line = in.readLine();
+      timings.record(ConnectionTimings.AUTH, sent);
+
       if (line == null || !line.contains("OK")) {
+        timings.failed();
+        closeTransport();
+
         if (listener != null) {
           listener.onError("Connection / Authentification error");
         }
@@ -73,13 +82,9 @@ public class ShoutcastV1 extends Sourcer {
       writeHeaders(output);
     } catch (Exception e) {
       e.printStackTrace();
+      timings.failed();
 
-      try {
-        if (sock != null)
-          sock.close();
-      } catch (IOException e1) {
-        e1.printStackTrace();
-      }
+      closeTransport();
 
       if (listener != null) {
         listener.onError("Connection / Authentification error");
@@ -88,6 +93,7 @@ public class ShoutcastV1 extends Sourcer {
       return false;
     }
     started = true;
+    timings.connected();
 
     if (listener != null) {
       listener.onConnected();
@@ -105,8 +111,8 @@ public class ShoutcastV1 extends Sourcer {
     output.flush();
   }
 
-  private PrintWriter writeAuthentication() {
-    PrintWriter output = new PrintWriter(out);
+  private PrintWriter writeAuthentication() throws IOException {
+    PrintWriter output = new PrintWriter(transport.getOutputStream());
     output.println(password);
     output.flush();
     return output;
@@ -119,21 +125,25 @@ public class ShoutcastV1 extends Sourcer {
 
   @Override
   public boolean isStarted() {
-    return sock != null && sock.isConnected() && started;
+    return transport != null && transport.isConnected() && started;
   }
 
   @Override
   public boolean stop() {
+    clearPendingWrites();
 
-    try {
-      out.flush();
-      out.close();
-      sock.close();
+    synchronized (writeLock) {
+      try {
+        if (transport != null) {
+          transport.flush();
+          transport.close();
+        }
 
-      started = false;
+        started = false;
 
-    } catch (IOException e) {
-      e.printStackTrace();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
     }
 
     if (listener != null) {
@@ -144,54 +154,38 @@ public class ShoutcastV1 extends Sourcer {
   }
 
   public HttpUriRequest getUpdateMetadataRequest(String song, String artist, String album) {
+    return getUpdateMetadataRequest(new Metadata(song, artist, album));
+  }
+
+  public HttpUriRequest getUpdateMetadataRequest(Metadata metadata) {
     if (!started) {
       return null;
     }
 
-    String metadata =
-        metadataTemplate.replace("_song_", song).replace("_artist_", artist)
-            .replace("_album_", album);
-
-    final MetaDataHttpRequestParams params = new MetaDataHttpRequestParams();
-    params.put("mode", "updinfo");
-    params.put("charset", "UTF-8");
-    params.put("song", metadata);
-    params.put("pass", password);
-
-    final HashMap<String, String> headers = new HashMap<String, String>();
-    headers.put("User-Agent", USER_AGENT);
-
-    HttpUriRequest httpRequest =
-        new HttpGet(MetaDataHttpRequestParams.getUrlWithQueryString(
-            "http://" + host + ":" + Integer.toString(port) + "/admin.cgi", params));
-    if (headers != null) {
-      for (Map.Entry<String, String> entry : headers.entrySet()) {
-        httpRequest.addHeader(entry.getKey(), entry.getValue());
-      }
+    String url;
+    synchronized (urlBuffer) {
+      urlBuffer.reset().append("http://").append(host).append(":").append(port)
+          .append("/admin.cgi?mode=updinfo&charset=UTF-8&pass=").appendEncoded(password)
+          .append("&song=");
+      metadataTemplate.render(metadata, urlBuffer);
+
+      url = urlBuffer.toString();
     }
 
+    HttpGet httpRequest = new HttpGet(url);
+    httpRequest.setConfig(getRequestConfig());
+    httpRequest.addHeader("User-Agent", USER_AGENT);
+
     return httpRequest;
   }
 
   @Override
-  public void updateMetadata(String song, String artist, String album) {
+  protected boolean sendMetadata(Metadata metadata) {
     if (!started) {
-      return;
+      return false;
     }
 
-    RequestConfig requestConfig =
-        RequestConfig.custom().setSocketTimeout(timeout * 1000).setConnectTimeout(timeout * 1000)
-            .build();
-    HttpClient httpClient =
-        HttpClientBuilder.create().setDefaultRequestConfig(requestConfig).build();
-
-    HttpUriRequest request = getUpdateMetadataRequest(song, artist, album);
-
-    try {
-      httpClient.execute(request);
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
+    return executeMetadataRequest(getUpdateMetadataRequest(metadata));
   }
 
   public String getHost() {
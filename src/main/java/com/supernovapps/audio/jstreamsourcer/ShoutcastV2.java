@@ -16,13 +16,24 @@
 
 package com.supernovapps.audio.jstreamsourcer;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
 
 import com.supernovapps.audio.jstreamsourcer.ultravox2.Message;
+import com.supernovapps.audio.jstreamsourcer.ultravox2.MessageDecoder;
 import com.supernovapps.audio.jstreamsourcer.ultravox2.MessageFactory;
+import com.supernovapps.audio.jstreamsourcer.ultravox2.MetadataFragmenter;
+import com.supernovapps.audio.jstreamsourcer.ultravox2.MetadataFrameCache;
+import com.supernovapps.audio.jstreamsourcer.ultravox2.MetadataXmlEncoder;
 
 public class ShoutcastV2 extends Sourcer {
   private String host = null;
@@ -33,37 +44,79 @@ public class ShoutcastV2 extends Sourcer {
   private String sid = "";
   private String uid = "";
 
-  private Socket sock = null;
-  private InputStream in = null;
-
   private int bufferSize = 320;
   private int maxPayload = 4096;
 
+  private int negotiatedPayload = maxPayload;
+  private boolean coalescing = false;
+  private volatile boolean pipelined = false;
+
+  private byte[] frame = null;
+  private int pending = 0;
+
+  private final MessageDecoder decoder = new MessageDecoder();
+
+  private final MetadataXmlEncoder metadataEncoder = new MetadataXmlEncoder();
+  private MetadataFragmenter fragmenter = null;
+  private volatile MetadataFrameCache metadataCache = new MetadataFrameCache();
+
+  private BinaryMetadataStream binaryMetadata = null;
+
+  private volatile Codec codec = Codec.MP3;
+
   public ShoutcastV2(int kbps, int burst) {
     super(kbps, burst);
   }
 
   public boolean start(Socket sock) {
+    return start(new SocketTransport(sock));
+  }
+
+  public boolean start(SocketChannel channel) {
+    return start(new ChannelTransport(channel));
+  }
+
+  public boolean start(Transport transport) {
     Message msg = null;
+    OutputStream out = null;
+    InputStream in = null;
+
+    pending = 0;
+    negotiatedPayload = maxPayload;
+    resetWriteState();
+    decoder.reset();
 
+    long authStart;
+    long begin = timings.beginAttempt();
     try {
-      this.sock = sock;
-      sock.connect(new InetSocketAddress(host, port), 5000);
-      sock.setSendBufferSize(64 * 1024);
-      out = sock.getOutputStream();
-      in = sock.getInputStream();
+      this.transport = transport;
+      transport.connect(new InetSocketAddress(host, port), timeout, sendBufferSize);
+      authStart = timings.record(ConnectionTimings.CONNECT, begin);
+
+      out = transport.getOutputStream();
+      in = transport.getInputStream();
 
       msg = MessageFactory.getRequestCipherMessage();
       out.write(msg.encode());
     } catch (IOException e) {
       e.printStackTrace();
+      timings.failed();
+      closeTransport();
       return false;
     }
 
+    // in pipelined mode, the configuration steps are all timed from the moment they are sent
+    long stepStart = authStart;
+
+    Message[] steps = null;
+    int acked = 0;
+
     while (!started) {
       try {
-        msg = Message.read(in);
+        msg = decoder.read(in);
         if (msg.msgClass != Message.CLASS_BROADCASTER) {
+          timings.failed();
+          closeTransport();
           return false;
         }
 
@@ -77,6 +130,7 @@ public class ShoutcastV2 extends Sourcer {
         switch (msg.msgType) {
           case Message.BROADCAST_REQUEST_CIPHER:
             String cipherkey = data[1];
+            stepStart = timings.recordUltravox(msg.msgType, stepStart);
 
             msg = MessageFactory.getBroadcastAuthRequest(sid, uid, password, cipherkey);
             out.write(msg.encode());
@@ -91,71 +145,41 @@ public class ShoutcastV2 extends Sourcer {
               throw new Exception(data[2]);
             }
 
-            msg = MessageFactory.getStreamMimeType("audio/mpeg");
-            out.write(msg.encode());
+            stepStart = timings.recordUltravox(msg.msgType, stepStart);
+            timings.record(ConnectionTimings.AUTH, authStart);
 
-            break;
-          case Message.BROADCAST_STREAM_MINE_TYPE:
-            msg = MessageFactory.getSetupBroadcast(kbps * 1000, kbps * 1000);
-            out.write(msg.encode());
-
-            break;
-          case Message.BROADCAST_SETUP:
-            msg = MessageFactory.getNegociateBufferSize(bufferSize, bufferSize);
-            out.write(msg.encode());
-
-            break;
-          case Message.BROADCAST_NEGOTIATE_BUFFER_SIZE:
-            msg = MessageFactory.getNegociateMaxPayloadSize(maxPayload, maxPayload);
-            out.write(msg.encode());
-
-            break;
-          case Message.BROADCAST_NEGOTIATE_MAX_PAYLOAD:
-            msg = MessageFactory.getIcyGenre(streamInfos.get("icy-genre"));
-            out.write(msg.encode());
-
-            break;
-          case Message.BROADCAST_CONFIGURE_ICY_GENRE:
-            msg = MessageFactory.getIcyName(streamInfos.get("icy-name"));
-            out.write(msg.encode());
-
-            break;
-          case Message.BROADCAST_CONFIGURE_ICY_NAME:
-            String pub = streamInfos.get("icy-pub");
-            if (pub.compareTo("1") == 0) {
-              msg = MessageFactory.getIcyPub(true);
+            steps = getConfigurationMessages();
+            if (pipelined) {
+              writeAll(out, steps);
             } else {
-              msg = MessageFactory.getIcyPub(false);
+              out.write(steps[0].encode());
             }
 
-            out.write(msg.encode());
-
             break;
-          case Message.BROADCAST_CONFIGURE_ICY_PUB:
-            msg = MessageFactory.getIcyUrl(streamInfos.get("icy-url"));
-            out.write(msg.encode());
+          default:
+            if (steps == null || !isConfigurationStep(steps, msg.msgType)) {
+              break;
+            }
 
-            break;
-          case Message.BROADCAST_CONFIGURE_ICY_URL:
-            msg = MessageFactory.getStandby();
-            out.write(msg.encode());
+            if (msg.msgType != steps[acked].msgType) {
+              throw new Exception("Unexpected acknowledgement " + msg.msgType);
+            }
+            acked++;
 
-            break;
-          case Message.BROADCAST_STANDBY:
-            if (data[1].compareTo("Data transfer mode") != 0)
-              throw new Exception(data[1]);
+            long now = timings.recordUltravox(msg.msgType, stepStart);
+            onConfigurationAck(msg.msgType, data);
 
-            if (listener != null) {
-              listener.onConnected();
+            if (!pipelined && acked < steps.length) {
+              stepStart = now;
+              out.write(steps[acked].encode());
             }
 
-            started = true;
-
-            break;
-          default:
             break;
         }
       } catch (Exception ex) {
+        timings.failed();
+        closeTransport();
+
         if (listener != null) {
           listener.onError(ex.getMessage());
         }
@@ -166,36 +190,295 @@ public class ShoutcastV2 extends Sourcer {
     return true;
   }
 
+  /**
+   * Gets the messages configuring the broadcast once authenticated, in the order they are sent.
+   */
+  private Message[] getConfigurationMessages() {
+    return new Message[] {
+        MessageFactory.getStreamMimeType(codec.getMimeType()),
+        MessageFactory.getSetupBroadcast(kbps * 1000, kbps * 1000),
+        MessageFactory.getNegociateBufferSize(bufferSize, bufferSize),
+        MessageFactory.getNegociateMaxPayloadSize(maxPayload, maxPayload),
+        MessageFactory.getIcyGenre(streamInfos.get("icy-genre")),
+        MessageFactory.getIcyName(streamInfos.get("icy-name")),
+        MessageFactory.getIcyPub("1".equals(streamInfos.get("icy-pub"))),
+        MessageFactory.getIcyUrl(streamInfos.get("icy-url")),
+        MessageFactory.getStandby()};
+  }
+
+  private static boolean isConfigurationStep(Message[] steps, short msgType) {
+    for (Message step : steps) {
+      if (step.msgType == msgType) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Sends all the messages in a single write, so that they go out back to back.
+   */
+  private static void writeAll(OutputStream out, Message[] messages) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    for (Message message : messages) {
+      buffer.write(message.encode());
+    }
+
+    buffer.writeTo(out);
+  }
+
+  private void onConfigurationAck(short msgType, String[] data) throws Exception {
+    switch (msgType) {
+      case Message.BROADCAST_NEGOTIATE_MAX_PAYLOAD:
+        negotiatedPayload = parseNegotiatedPayload(data);
+
+        break;
+      case Message.BROADCAST_STANDBY:
+        if (data[1].compareTo("Data transfer mode") != 0)
+          throw new Exception(data[1]);
+
+        timings.connected();
+
+        if (listener != null) {
+          listener.onConnected();
+        }
+
+        started = true;
+
+        break;
+      default:
+        break;
+    }
+  }
+
   @Override
   public boolean start() {
     return start(new Socket());
   }
 
+  /**
+   * Reads the next message sent by the server once connected, ex: a listener message or a
+   * broadcast termination, blocking until a whole one is received. Meant to be called from a
+   * thread dedicated to it.
+   *
+   * @return the message
+   */
+  public Message readMessage() throws IOException {
+    Transport t = transport;
+    if (t == null || !started) {
+      throw new IOException("Not connected");
+    }
+
+    synchronized (decoder) {
+      return decoder.read(t.getInputStream());
+    }
+  }
+
+  private int parseNegotiatedPayload(String[] data) {
+    int payload = maxPayload;
+    if (data.length > 1) {
+      try {
+        payload = Math.min(payload, Integer.parseInt(data[1].trim()));
+      } catch (NumberFormatException e) {
+        // keep the requested one
+      }
+    }
+
+    return Math.max(1, Math.min(payload, Message.MAX_PAYLOAD_SIZE));
+  }
+
+  /**
+   * Wraps audio data in data messages of at most the negotiated max payload. In coalescing mode,
+   * small buffers are gathered until a full message is available. When a frame format is set,
+   * the frames fitting in a message are not split across two.
+   */
+  @Override
+  protected synchronized void writeData(byte[] data, int offset, int size) {
+    if (!started || size <= 0) {
+      return;
+    }
+
+    int payloadSize = negotiatedPayload;
+
+    int frameSize = Message.HEADER_SIZE + payloadSize + Message.TRAILER_SIZE;
+    if (frame == null || frame.length < frameSize) {
+      frame = new byte[frameSize];
+    }
+
+    if (pending > 0 && pending + size > payloadSize && size <= payloadSize
+        && getFrameFormat() != null) {
+      flush();
+    }
+
+    int end = offset + size;
+    while (offset < end) {
+      int len = Math.min(payloadSize - pending, end - offset);
+      System.arraycopy(data, offset, frame, Message.HEADER_SIZE + pending, len);
+
+      pending += len;
+      offset += len;
+
+      if (pending >= payloadSize || !coalescing) {
+        flush();
+      }
+    }
+  }
+
+  /**
+   * Sends the audio data gathered in coalescing mode, even if they do not fill a frame.
+   */
+  public synchronized void flush() {
+    if (pending == 0) {
+      return;
+    }
+
+    int len =
+        Message.encode(codec.getMsgClass(), codec.getMsgType(), null, 0, pending, frame, 0);
+    pending = 0;
+
+    send(frame, 0, len);
+
+    if (binaryMetadata != null) {
+      sendBinaryMetadataFragment();
+    }
+  }
+
+  /**
+   * Sends binary metadata, as a picture, in cacheable binary metadata messages. One message is
+   * sent after each audio data message, so that the audio is not delayed, a previous binary
+   * metadata not fully sent yet is abandoned. The buffer is read from its position to its limit
+   * while being sent, it must not be modified meanwhile.
+   *
+   * @param msgType, the kind of picture combined with the image format, ex:
+   * Message.BINARY_METADATA_PLAYING_ART | Message.BINARY_METADATA_PNG
+   * @param data, the binary metadata
+   */
+  public synchronized void sendBinaryMetadata(short msgType, ByteBuffer data) {
+    setBinaryMetadata(new BinaryMetadataStream(msgType, data));
+  }
+
+  /**
+   * Sends the content of a file as binary metadata, read one message at a time.
+   *
+   * @param msgType, the kind of picture combined with the image format
+   * @param file, the file
+   * @see #sendBinaryMetadata(short, ByteBuffer)
+   */
+  public void sendBinaryMetadata(short msgType, File file) throws IOException {
+    FileChannel channel = new FileInputStream(file).getChannel();
+
+    boolean handed = false;
+    try {
+      BinaryMetadataStream stream = new BinaryMetadataStream(msgType, channel, channel.size());
+
+      synchronized (this) {
+        setBinaryMetadata(stream);
+      }
+      handed = true;
+    } finally {
+      // closed by the stream once handed over
+      if (!handed) {
+        channel.close();
+      }
+    }
+  }
+
+  /**
+   * Checks if binary metadata are being sent.
+   *
+   * @return true, if some messages are still to be sent
+   */
+  public synchronized boolean isSendingBinaryMetadata() {
+    return binaryMetadata != null;
+  }
+
+  /**
+   * Abandons the binary metadata being sent.
+   */
+  public synchronized void cancelBinaryMetadata() {
+    setBinaryMetadata(null);
+  }
+
+  private void setBinaryMetadata(BinaryMetadataStream stream) {
+    if (binaryMetadata != null) {
+      try {
+        binaryMetadata.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+
+    binaryMetadata = stream;
+  }
+
+  private void sendBinaryMetadataFragment() {
+    try {
+      int len = binaryMetadata.encodeNext(getFragmenter());
+      if (!binaryMetadata.hasNext()) {
+        binaryMetadata = null;
+      }
+
+      send(getFragmenter().getBuffer(), 0, len);
+    } catch (IOException e) {
+      e.printStackTrace();
+
+      if (listener != null) {
+        listener.onError(e.getMessage());
+      }
+      setBinaryMetadata(null);
+    }
+  }
+
+  /**
+   * Frames are gathered up to the negotiated max payload, so that each data message starts on
+   * a frame boundary.
+   */
   @Override
-  public void write(byte[] data, int size) {
-    Message msg = MessageFactory.getData(Message.DATA1_MP3, data, size);
+  protected int getMaxFrameRun() {
+    return negotiatedPayload;
+  }
 
-    byte[] buffer = msg.encode();
-    super.write(buffer, buffer.length);
+  /**
+   * Only the audio payload of the data frames is paced, the framing and the metadata are not
+   * part of the bitrate.
+   */
+  @Override
+  protected long getWaitNanos(byte[] data, int offset, int size) {
+    int overhead = Message.HEADER_SIZE + Message.TRAILER_SIZE;
+    if (size <= overhead) {
+      return 0;
+    }
+
+    int msgClass = (data[offset + 2] >> 4) & 0x0F;
+    if (msgClass != Message.CLASS_DATA1 && msgClass != Message.CLASS_DATA2) {
+      return 0;
+    }
+
+    return super.getWaitNanos(data, offset + Message.HEADER_SIZE, size - overhead);
   }
 
   @Override
   public boolean isStarted() {
-    return sock != null && sock.isConnected() && started;
+    return transport != null && transport.isConnected() && started;
   }
 
   @Override
   public boolean stop() {
+    clearPendingWrites();
+    cancelBinaryMetadata();
 
-    try {
-      out.flush();
-      out.close();
-      sock.close();
+    synchronized (writeLock) {
+      try {
+        if (transport != null) {
+          transport.flush();
+          transport.close();
+        }
 
-      started = false;
+        started = false;
 
-    } catch (IOException e) {
-      e.printStackTrace();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
     }
 
     if (listener != null) {
@@ -206,16 +489,56 @@ public class ShoutcastV2 extends Sourcer {
   }
 
   @Override
-  public void updateMetadata(String song, String artist, String album) {
+  protected synchronized boolean sendMetadata(Metadata metadata) {
     if (!started) {
-      return;
+      return false;
+    }
+
+    flush();
+
+    MetadataFrameCache cache = metadataCache;
+    if (cache != null) {
+      byte[] frames = cache.get(metadata, negotiatedPayload);
+      if (frames == null) {
+        frames = encodeMetadata(metadata);
+        cache.put(metadata, negotiatedPayload, frames);
+      }
+
+      send(frames, 0, frames.length);
+      return started;
     }
 
-    Message[] msgs = MessageFactory.getMetadata(song, artist, album, maxPayload);
-    for (Message msg : msgs) {
-      byte[] buffer = msg.encode();
-      super.write(buffer, buffer.length);
+    metadataEncoder.encode(metadata);
+
+    MetadataFragmenter fragmenter = getFragmenter();
+
+    int id = MetadataFragmenter.nextId();
+    int span = fragmenter.getSpan(metadataEncoder.size());
+    for (int index = 1; index <= span; index++) {
+      int len =
+          fragmenter.encode(Message.CLASS_CACHEABLE_METADATA1,
+              Message.CACHEABLE_METADATA1_XML_SHOUCAST_METADATA, id, metadataEncoder.getBuffer(),
+              metadataEncoder.size(), index);
+      send(fragmenter.getBuffer(), 0, len);
+    }
+
+    return started;
+  }
+
+  private byte[] encodeMetadata(Metadata metadata) {
+    metadataEncoder.encode(metadata);
+
+    return getFragmenter().encodeAll(Message.CLASS_CACHEABLE_METADATA1,
+        Message.CACHEABLE_METADATA1_XML_SHOUCAST_METADATA, MetadataFragmenter.nextId(),
+        metadataEncoder.getBuffer(), metadataEncoder.size());
+  }
+
+  private MetadataFragmenter getFragmenter() {
+    if (fragmenter == null || fragmenter.getPayloadLen() != negotiatedPayload) {
+      fragmenter = new MetadataFragmenter(negotiatedPayload);
     }
+
+    return fragmenter;
   }
 
   public String getHost() {
@@ -266,6 +589,83 @@ public class ShoutcastV2 extends Sourcer {
     this.maxPayload = maxPayload;
   }
 
+  /**
+   * Gets the max payload accepted by the server, valid once started.
+   *
+   * @return the negotiated max payload
+   */
+  public int getNegotiatedPayload() {
+    return negotiatedPayload;
+  }
+
+  public boolean isPipelined() {
+    return pipelined;
+  }
+
+  /**
+   * Sets the pipelined handshake. When enabled, the messages configuring the broadcast are all
+   * sent right after the authentication, their acknowledgements being checked as they arrive,
+   * instead of waiting for each acknowledgement before sending the next message. This saves
+   * about nine round trips per connection.
+   *
+   * @param pipelined the new pipelined mode
+   */
+  public void setPipelined(boolean pipelined) {
+    this.pipelined = pipelined;
+  }
+
+  public boolean isCoalescing() {
+    return coalescing;
+  }
+
+  /**
+   * Sets the coalescing mode. When enabled, small buffers are gathered until a frame of the
+   * negotiated max payload is filled, flush sends a partial frame.
+   *
+   * @param coalescing the new coalescing mode
+   */
+  public void setCoalescing(boolean coalescing) {
+    this.coalescing = coalescing;
+  }
+
+  /**
+   * Gets the cache of the encoded metadata messages.
+   *
+   * @return the cache, null if disabled
+   */
+  public MetadataFrameCache getMetadataCache() {
+    return metadataCache;
+  }
+
+  /**
+   * Sets the cache of the encoded metadata messages, it may be shared by several sourcers. Null
+   * to encode the metadata on each update.
+   *
+   * @param metadataCache the new cache
+   */
+  public void setMetadataCache(MetadataFrameCache metadataCache) {
+    this.metadataCache = metadataCache;
+  }
+
+  public Codec getCodec() {
+    return codec;
+  }
+
+  /**
+   * Sets the codec of the stream, used for the next connection. The MIME type and the data
+   * messages follow it, and the writes are aligned on its frames, MP3 or ADTS.
+   *
+   * @param codec the new codec
+   */
+  public synchronized void setCodec(Codec codec) {
+    flush();
+
+    this.codec = codec;
+
+    setStreamInfo(CONTENT_TYPE, codec.getMimeType());
+    setFrameFormat(codec.createFrameFormat());
+  }
+
   public String getSid() {
     return sid;
   }
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Transport based on a blocking java.net.Socket.
+ */
+public class SocketTransport implements Transport {
+  private final Socket sock;
+
+  private InputStream in = null;
+  private OutputStream out = null;
+
+  public SocketTransport(Socket sock) {
+    this.sock = sock;
+  }
+
+  @Override
+  public void connect(InetSocketAddress address, int timeout, int sendBufferSize)
+      throws IOException {
+    sock.connect(address, timeout);
+    sock.setSendBufferSize(sendBufferSize);
+
+    out = sock.getOutputStream();
+    in = sock.getInputStream();
+  }
+
+  @Override
+  public InputStream getInputStream() {
+    return in;
+  }
+
+  @Override
+  public OutputStream getOutputStream() {
+    return out;
+  }
+
+  @Override
+  public void write(byte[] data, int offset, int size) throws IOException {
+    out.write(data, offset, size);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if (out != null) {
+      out.flush();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (out != null) {
+      out.close();
+    }
+    sock.close();
+  }
+
+  @Override
+  public boolean isConnected() {
+    return sock.isConnected();
+  }
+
+  public Socket getSocket() {
+    return sock;
+  }
+}
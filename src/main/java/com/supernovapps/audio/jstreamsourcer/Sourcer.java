@@ -17,11 +17,24 @@
 package com.supernovapps.audio.jstreamsourcer;
 
 import java.io.IOException;
-import java.io.OutputStream;
 import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpUriRequest;
 
 import com.supernovapps.audio.jstreamsourcer.OnSourcerListener;
-import com.supernovapps.audio.jstreamsourcer.RateHelper;
+import com.supernovapps.audio.jstreamsourcer.audio.FrameFormat;
 
 public abstract class Sourcer {
   public final static String USER_AGENT = "JStreamSourcer/1.0";
@@ -32,31 +45,71 @@ public abstract class Sourcer {
   public static final String ICY_GENRE = "icy-genre";
   public static final String CONTENT_TYPE = "content-type";
 
-  protected OutputStream out;
+  private static final int METADATA_THREADS = 4;
+
+  private static ExecutorService defaultMetadataExecutor = null;
+
+  protected Transport transport = null;
 
-  protected boolean started = false;
+  protected volatile boolean started = false;
 
-  protected RateHelper rateHelper = null;
+  protected Pacer pacer = null;
 
   protected OnSourcerListener listener = null;
 
   protected int kbps = 320;
 
+  protected int burst = 0;
+
   protected int timeout = 5000;
 
+  protected int sendBufferSize = 64 * 1024;
+
   protected LinkedHashMap<String, String> streamInfos;
 
+  private volatile ChunkQueue writeQueue = null;
+
+  private AsyncWriter asyncWriter = null;
+
+  /**
+   * Held while pacing and writing to the transport, so that the I/O thread and the caller never
+   * write at the same time, and while closing it.
+   */
+  protected final Object writeLock = new Object();
+
+  private boolean engineQueue = false;
+
+  private volatile AudioFramer framer = null;
+
+  private volatile ReconnectSupervisor reconnectSupervisor = null;
+
+  protected final ConnectionTimings timings = new ConnectionTimings();
+
+  protected final StreamMetrics metrics = new StreamMetrics(this);
+
+  private volatile HttpClient httpClient = null;
+
+  private volatile RequestConfig requestConfig = null;
+
+  private volatile ExecutorService metadataExecutor = null;
+
+  private volatile MetadataCoalescer metadataCoalescer = null;
+
+  protected volatile MetadataTemplate metadataTemplate = new MetadataTemplate(
+      MetadataTemplate.DEFAULT_TEMPLATE);
+
   /**
    * Instantiates a new sourcer.
    *
    * @param kbps, used for the stream, ex: 128, 256, 320, etc.
-   * @param burst, number of seconds without any rate limiting. The packet will
-   * be sent as faster as possible. 
+   * @param burst, number of milliseconds of audio sent without any rate limiting. The packet
+   * will be sent as faster as possible.
    */
   public Sourcer(int kbps, int burst) {
     this.kbps = kbps;
+    this.burst = burst;
 
-    rateHelper = new RateHelper(kbps, burst);
+    pacer = TokenBucketPacer.forBitrate(kbps, burst);
 
     streamInfos = new LinkedHashMap<String, String>();
     streamInfos.put(CONTENT_TYPE, "audio/mpeg");
@@ -92,37 +145,574 @@ public abstract class Sourcer {
   public abstract boolean stop();
 
   /**
-   * Writes data to the openened streaming connection
+   * Writes data to the openened streaming connection. In asynchronous mode, or when driven by a
+   * SourcerEngine, the data are copied to the write queue and the call returns without waiting
+   * for the rate limiting or the socket. When a frame format is set, only whole frames are
+   * written, the end of the data is kept until its frame is completed.
    *
    * @param data, buffer of data
    * @param size, the size of the data buffer
    */
   public void write(byte[] data, int size) {
+    if (size <= 0) {
+      return;
+    }
+
+    ReconnectSupervisor r = reconnectSupervisor;
+    if (r != null && r.offer(data, size)) {
+      return;
+    }
+
+    writeAudio(data, size);
+  }
+
+  void writeAudio(byte[] data, int size) {
+    if (!started) {
+      return;
+    }
+
+    AudioFramer f = framer;
+    if (f != null) {
+      f.write(data, 0, size);
+    } else {
+      writeData(data, 0, size);
+    }
+  }
+
+  /**
+   * Writes audio data, made of whole frames when a frame format is set. Overridden by the
+   * protocols wrapping the audio data.
+   *
+   * @param data, buffer of data
+   * @param offset, the offset of the data in the buffer
+   * @param size, the size of the data
+   */
+  protected void writeData(byte[] data, int offset, int size) {
+    send(data, offset, size);
+  }
+
+  /**
+   * Sends data as they are, through the write queue if any.
+   *
+   * @param data, buffer of data
+   * @param offset, the offset of the data in the buffer
+   * @param size, the size of the data
+   */
+  protected void send(byte[] data, int offset, int size) {
     if (!started || size <= 0) {
       return;
     }
 
-    if (rateHelper != null) {
-      rateHelper.wait(size);
+    ChunkQueue queue = writeQueue;
+    if (queue != null) {
+      queue.offer(data, offset, size);
+    } else {
+      writeNow(data, offset, size);
+    }
+  }
+
+  /**
+   * Gets the maximum number of bytes of consecutive frames given at once to writeData.
+   *
+   * @return the max run size
+   */
+  protected int getMaxFrameRun() {
+    return Integer.MAX_VALUE;
+  }
+
+  void writeNow(byte[] data, int offset, int size) {
+    if (!started) {
+      return;
+    }
+
+    IOException error = null;
+
+    synchronized (writeLock) {
+      if (!started) {
+        return;
+      }
+
+      parkNanos(getWaitNanos(data, offset, size));
+
+      try {
+        long start = System.nanoTime();
+        transport.write(data, offset, size);
+        metrics.sent(size, System.nanoTime() - start);
+        timings.bytesSent();
+      } catch (IOException e) {
+        error = e;
+      }
+    }
+
+    // outside of the lock, stop takes it to close the transport
+    if (error != null) {
+      error.printStackTrace();
+      metrics.writeError();
+
+      if (started) {
+        connectionLost(error);
+      }
+    }
+  }
+
+  /**
+   * Closes the transport after a failed start, so that no connection is left open between two
+   * attempts.
+   */
+  protected void closeTransport() {
+    if (transport == null) {
+      return;
     }
 
     try {
-      out.write(data, 0, size);
+      transport.close();
     } catch (IOException e) {
       e.printStackTrace();
+    }
+  }
+
+  /**
+   * Stops the connection after a write error, then reconnects it when a ReconnectSupervisor is
+   * set.
+   *
+   * @param e, the write error
+   */
+  protected void connectionLost(IOException e) {
+    stop();
+
+    ReconnectSupervisor r = reconnectSupervisor;
+    if (r != null) {
+      r.connectionLost(e.getMessage());
+    }
+  }
 
-      stop();
+  /**
+   * Gives the time to wait before sending the given data, as decided by the pacer.
+   *
+   * @param data, buffer of data about to be sent
+   * @param offset, the offset of the data in the buffer
+   * @param size, the size of the data
+   * @return the time to wait, in nanoseconds
+   */
+  protected long getWaitNanos(byte[] data, int offset, int size) {
+    Pacer p = pacer;
+    long wait = p != null ? p.getWaitNanos(data, offset, size) : 0;
+    metrics.paced(wait);
+    return wait;
+  }
+
+  /**
+   * Forgets the data accounted by the pacer and the partial frame buffered, called when a
+   * connection is started.
+   */
+  protected void resetWriteState() {
+    Pacer p = pacer;
+    if (p != null) {
+      p.reset();
+    }
+
+    AudioFramer f = framer;
+    if (f != null) {
+      f.reset();
+    }
+  }
+
+  static void parkNanos(long nanos) {
+    if (nanos <= 0) {
+      return;
+    }
+
+    long deadline = System.nanoTime() + nanos;
+    while (nanos > 0 && !Thread.currentThread().isInterrupted()) {
+      LockSupport.parkNanos(nanos);
+      nanos = deadline - System.nanoTime();
+    }
+  }
+
+  /**
+   * Switches to the asynchronous mode. The buffers given to write are queued in a bounded ring
+   * buffer, drained by a dedicated I/O thread which handles the rate limiting and the socket
+   * writes.
+   *
+   * @param capacity, the maximum number of buffers queued
+   * @param policy, what to do when a buffer is written while the queue is full
+   */
+  public synchronized void enableAsyncWrite(int capacity, OverflowPolicy policy) {
+    if (engineQueue) {
+      throw new IllegalStateException("Sourcer driven by a SourcerEngine");
+    }
+
+    disableAsyncWrite();
+
+    asyncWriter = new AsyncWriter(this, capacity, policy);
+    writeQueue = asyncWriter.getQueue();
+    asyncWriter.start();
+  }
+
+  /**
+   * Switches back to the synchronous mode, the buffers still queued are dropped. Waits for the
+   * buffer being written by the I/O thread, if any.
+   */
+  public void disableAsyncWrite() {
+    AsyncWriter writer;
+
+    synchronized (this) {
+      writer = asyncWriter;
+      if (writer == null) {
+        return;
+      }
+
+      writeQueue = null;
+      asyncWriter = null;
+    }
+
+    // joined without holding the lock, the I/O thread may need it to stop after a write error
+    writer.shutdown();
+  }
+
+  /**
+   * Checks if the asynchronous mode is enabled.
+   *
+   * @return true, if enabled
+   */
+  public boolean isAsyncWrite() {
+    return asyncWriter != null;
+  }
+
+  synchronized void attachEngineQueue(ChunkQueue queue) {
+    if (asyncWriter != null) {
+      throw new IllegalStateException("Sourcer in asynchronous mode");
+    }
+
+    writeQueue = queue;
+    engineQueue = true;
+  }
+
+  synchronized void detachEngineQueue(ChunkQueue queue) {
+    if (writeQueue == queue) {
+      writeQueue = null;
+      engineQueue = false;
+    }
+  }
+
+  /**
+   * Gets the number of buffers waiting in the write queue, always 0 in synchronous mode.
+   *
+   * @return the queue depth
+   */
+  public int getQueueDepth() {
+    ChunkQueue queue = writeQueue;
+    return queue != null ? queue.size() : 0;
+  }
+
+  /**
+   * Gets the number of bytes waiting in the write queue, always 0 in synchronous mode.
+   *
+   * @return the queued bytes
+   */
+  public long getQueuedBytes() {
+    ChunkQueue queue = writeQueue;
+    return queue != null ? queue.getQueuedBytes() : 0;
+  }
+
+  /**
+   * Gets the number of buffers dropped because the write queue was full.
+   *
+   * @return the dropped buffers
+   */
+  public long getDroppedBuffers() {
+    ChunkQueue queue = writeQueue;
+    return queue != null ? queue.getDropped() : 0;
+  }
+
+  /**
+   * Drops the buffers still waiting in the write queue and cancels any reconnection, called when
+   * the connection is stopped.
+   */
+  protected void clearPendingWrites() {
+    ChunkQueue queue = writeQueue;
+    if (queue != null) {
+      queue.clear();
+    }
+
+    ReconnectSupervisor r = reconnectSupervisor;
+    if (r != null) {
+      r.cancel();
     }
   }
 
   /**
-   * Update metadata of the current streaming
+   * Gets the counters of the data sent.
+   *
+   * @return the metrics
+   */
+  public StreamMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Gets the timings of the connection attempts, per step of the handshake.
+   *
+   * @return the timings
+   */
+  public ConnectionTimings getConnectionTimings() {
+    return timings;
+  }
+
+  /**
+   * Gets the supervisor reconnecting the sourcer when the connection is lost.
+   *
+   * @return the supervisor, null if the sourcer is not reconnected
+   */
+  public ReconnectSupervisor getReconnectSupervisor() {
+    return reconnectSupervisor;
+  }
+
+  /**
+   * Sets the supervisor reconnecting the sourcer when the connection is lost while writing, null
+   * to stop on write errors.
+   *
+   * @param supervisor, the new supervisor
+   */
+  public synchronized void setReconnectSupervisor(ReconnectSupervisor supervisor) {
+    if (reconnectSupervisor != null) {
+      reconnectSupervisor.detach();
+    }
+
+    if (supervisor != null) {
+      supervisor.attach(this);
+    }
+    reconnectSupervisor = supervisor;
+  }
+
+  /**
+   * Update metadata of the current streaming. When a metadata interval is set, the update is
+   * coalesced and sent asynchronously.
+   *
+   * @param song, the song
+   * @param artist, the artist
+   * @param album, the album
+   */
+  public void updateMetadata(String song, String artist, String album) {
+    updateMetadata(new Metadata(song, artist, album));
+  }
+
+  /**
+   * Update metadata of the current streaming. When a metadata interval is set, the update is
+   * coalesced and sent asynchronously.
+   *
+   * @param metadata, the metadata
+   */
+  public void updateMetadata(Metadata metadata) {
+    if (metadataCoalescer != null) {
+      updateMetadataAsync(metadata);
+    } else {
+      sendMetadata(metadata);
+    }
+  }
+
+  /**
+   * Update metadata of the current streaming without blocking the calling thread. The updates,
+   * HTTP requests or Ultravox messages, are sent from the metadata executor.
    *
    * @param song, the song
    * @param artist, the artist
    * @param album, the album
+   * @return the outcome of the update, true if accepted by the server
+   */
+  public Future<Boolean> updateMetadataAsync(String song, String artist, String album) {
+    return updateMetadataAsync(new Metadata(song, artist, album));
+  }
+
+  /**
+   * Update metadata of the current streaming without blocking the calling thread. The updates,
+   * HTTP requests or Ultravox messages, are sent from the metadata executor.
+   *
+   * @param metadata, the metadata
+   * @return the outcome of the update, true if accepted by the server
+   */
+  public Future<Boolean> updateMetadataAsync(final Metadata metadata) {
+    FutureTask<Boolean> task = new FutureTask<Boolean>(new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        return sendMetadata(metadata);
+      }
+    });
+
+    MetadataCoalescer coalescer = metadataCoalescer;
+    if (coalescer != null) {
+      coalescer.submit(task);
+    } else {
+      getMetadataExecutor().execute(task);
+    }
+
+    return task;
+  }
+
+  /**
+   * Sends a metadata update, from the calling thread.
+   *
+   * @param metadata, the metadata
+   * @return true, if the update has been sent and accepted
+   */
+  protected abstract boolean sendMetadata(Metadata metadata);
+
+  /**
+   * Gets the executor running the asynchronous metadata updates.
+   *
+   * @return the executor given to this sourcer or the shared one
+   */
+  public ExecutorService getMetadataExecutor() {
+    ExecutorService executor = metadataExecutor;
+    return executor != null ? executor : getDefaultMetadataExecutor();
+  }
+
+  /**
+   * Sets the executor running the asynchronous metadata updates, null to use the shared one. The
+   * executor is not shut down by the sourcer.
+   *
+   * @param metadataExecutor the new executor
+   */
+  public void setMetadataExecutor(ExecutorService metadataExecutor) {
+    this.metadataExecutor = metadataExecutor;
+  }
+
+  /**
+   * Gets the template formatting the metadata sent as a single text, by Icecast and ShoutcastV1.
+   *
+   * @return the metadata template
+   */
+  public String getMetadataTemplate() {
+    return metadataTemplate.getTemplate();
+  }
+
+  /**
+   * Sets the template formatting the metadata sent as a single text, ex: "_artist_ - _song_".
+   * See MetadataTemplate for the fields available.
+   *
+   * @param template the new metadata template
+   */
+  public void setMetadataTemplate(String template) {
+    metadataTemplate = new MetadataTemplate(template);
+  }
+
+  /**
+   * Gets the minimum interval between two metadata updates.
+   *
+   * @return the interval in milliseconds, 0 if the updates are not coalesced
    */
-  public abstract void updateMetadata(final String song, final String artist, final String album);
+  public long getMetadataInterval() {
+    MetadataCoalescer coalescer = metadataCoalescer;
+    return coalescer != null ? coalescer.getIntervalMillis() : 0;
+  }
+
+  /**
+   * Sets the minimum interval between two metadata updates. Within an interval only the latest
+   * update is kept, the previous ones are cancelled. The updates are then always sent
+   * asynchronously, updateMetadata does not wait for them.
+   *
+   * @param interval, the interval in milliseconds, 0 to send every update
+   */
+  public synchronized void setMetadataInterval(long interval) {
+    MetadataCoalescer coalescer = metadataCoalescer;
+    if (coalescer != null) {
+      coalescer.clear();
+    }
+
+    metadataCoalescer = interval > 0 ? new MetadataCoalescer(this, interval) : null;
+  }
+
+  /**
+   * Gets the number of metadata updates superseded before being sent.
+   *
+   * @return the dropped updates
+   */
+  public long getDroppedMetadataUpdates() {
+    MetadataCoalescer coalescer = metadataCoalescer;
+    return coalescer != null ? coalescer.getDropped() : 0;
+  }
+
+  private static synchronized ExecutorService getDefaultMetadataExecutor() {
+    if (defaultMetadataExecutor == null) {
+      ThreadFactory factory = new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "jstreamsourcer-metadata-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      };
+
+      ThreadPoolExecutor executor =
+          new ThreadPoolExecutor(METADATA_THREADS, METADATA_THREADS, 60, TimeUnit.SECONDS,
+              new LinkedBlockingQueue<Runnable>(), factory);
+      executor.allowCoreThreadTimeOut(true);
+
+      defaultMetadataExecutor = executor;
+    }
+
+    return defaultMetadataExecutor;
+  }
+
+  /**
+   * Gets the client used for the metadata updates.
+   *
+   * @return the client given to this sourcer or the shared MetadataHttpClient one
+   */
+  public HttpClient getHttpClient() {
+    HttpClient client = httpClient;
+    return client != null ? client : MetadataHttpClient.getDefault();
+  }
+
+  /**
+   * Sets the client used for the metadata updates, null to use the shared one. The client is not
+   * closed by the sourcer.
+   *
+   * @param httpClient the new client
+   */
+  public void setHttpClient(HttpClient httpClient) {
+    this.httpClient = httpClient;
+  }
+
+  /**
+   * Gets the configuration of the metadata requests, following the connection timeout.
+   *
+   * @return the request configuration
+   */
+  protected RequestConfig getRequestConfig() {
+    RequestConfig config = requestConfig;
+    if (config == null || config.getConnectTimeout() != timeout) {
+      config =
+          RequestConfig.custom().setSocketTimeout(timeout).setConnectTimeout(timeout)
+              .setConnectionRequestTimeout(timeout).build();
+      requestConfig = config;
+    }
+
+    return config;
+  }
+
+  /**
+   * Sends a metadata request through the pooled client.
+   *
+   * @param request, the request
+   * @return true, if the server answered with a success status
+   */
+  protected boolean executeMetadataRequest(HttpUriRequest request) {
+    if (request == null) {
+      return false;
+    }
+
+    try {
+      int status = MetadataHttpClient.execute(getHttpClient(), request);
+      return status >= 200 && status < 300;
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+
+    return false;
+  }
 
   /**
    * Sets the OnSourcerListener. This is used to get notification when there is modification
@@ -152,6 +742,79 @@ public abstract class Sourcer {
     this.timeout = timeout;
   }
 
+  /**
+   * Gets the pacer used to rate limit the data sent.
+   *
+   * @return the pacer
+   */
+  public Pacer getPacer() {
+    return pacer;
+  }
+
+  /**
+   * Sets the pacer used to rate limit the data sent, null to send as fast as possible.
+   *
+   * @param pacer the new pacer
+   */
+  public void setPacer(Pacer pacer) {
+    this.pacer = pacer;
+  }
+
+  /**
+   * Gets the format of the frames the written data are aligned on.
+   *
+   * @return the frame format, null if the data are written as they are
+   */
+  public FrameFormat getFrameFormat() {
+    AudioFramer f = framer;
+    return f instanceof Framer ? ((Framer) f).getFormat() : null;
+  }
+
+  /**
+   * Sets the format of the frames the written data are aligned on, ex: Mp3FrameFormat or
+   * AdtsFrameFormat. Should be set before writing, null to write the data as they are.
+   *
+   * @param format the new frame format
+   */
+  public void setFrameFormat(FrameFormat format) {
+    framer = format != null ? new Framer(this, format) : null;
+  }
+
+  AudioFramer getFramer() {
+    return framer;
+  }
+
+  void setFramer(AudioFramer framer) {
+    this.framer = framer;
+  }
+
+  /**
+   * Gets the size of the socket send buffer.
+   *
+   * @return the send buffer size
+   */
+  public int getSendBufferSize() {
+    return sendBufferSize;
+  }
+
+  /**
+   * Sets the size of the socket send buffer, used for the next connection.
+   *
+   * @param sendBufferSize the new send buffer size
+   */
+  public void setSendBufferSize(int sendBufferSize) {
+    this.sendBufferSize = sendBufferSize;
+  }
+
+  /**
+   * Gets the transport of the current connection.
+   *
+   * @return the transport, null if never started
+   */
+  public Transport getTransport() {
+    return transport;
+  }
+
   /**
    * Sets the stream info. Permits to specify informations related to the
    * current streaming connection. Ex: url, genre, etc.
@@ -0,0 +1,403 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.supernovapps.audio.jstreamsourcer.ChunkQueue.Chunk;
+
+/**
+ * Drives many sourcers from a small pool of event loops instead of one blocked thread per
+ * sourcer.
+ *
+ * A sourcer is started as usual, with a SocketChannel, and then registered. From there, write
+ * only queues the data, each event loop paces and flushes all its sourcers through a Selector
+ * with non-blocking writes.
+ */
+public class SourcerEngine {
+  private static final long TICK = 10000000L;
+
+  private final EventLoop[] loops;
+  private final AtomicInteger next = new AtomicInteger();
+  private final ConcurrentHashMap<Sourcer, Session> sessions =
+      new ConcurrentHashMap<Sourcer, Session>();
+
+  /**
+   * Instantiates a new engine.
+   *
+   * @param threads, the number of event loops
+   */
+  public SourcerEngine(int threads) throws IOException {
+    if (threads <= 0) {
+      throw new IllegalArgumentException("At least one thread is required");
+    }
+
+    loops = new EventLoop[threads];
+    for (int i = 0; i < threads; i++) {
+      loops[i] = new EventLoop(i);
+    }
+  }
+
+  /**
+   * Starts the event loops.
+   */
+  public void start() {
+    for (EventLoop loop : loops) {
+      loop.thread.start();
+    }
+  }
+
+  /**
+   * Stops the event loops, the registered sourcers go back to the synchronous mode.
+   */
+  public void shutdown() {
+    for (EventLoop loop : loops) {
+      loop.shutdown();
+    }
+    sessions.clear();
+  }
+
+  /**
+   * Hands a started sourcer to the engine.
+   *
+   * @param sourcer, the sourcer, started with a SocketChannel
+   * @param capacity, the maximum number of buffers queued for this sourcer
+   * @param policy, what to do when a buffer is written while the queue is full
+   */
+  public void register(Sourcer sourcer, int capacity, OverflowPolicy policy) {
+    Transport transport = sourcer.getTransport();
+    if (!sourcer.isStarted() || !(transport instanceof ChannelTransport)) {
+      throw new IllegalStateException("Sourcer has to be started with a SocketChannel");
+    }
+
+    unregister(sourcer);
+
+    ChunkQueue queue = new ChunkQueue(capacity, policy);
+    sourcer.attachEngineQueue(queue);
+
+    EventLoop loop = loops[(next.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+
+    Session session =
+        new Session(loop, sourcer, ((ChannelTransport) transport).getChannel(), queue);
+    sessions.put(sourcer, session);
+
+    loop.add(session);
+  }
+
+  /**
+   * Gives a sourcer back to the synchronous mode. The buffer being sent is completed, the ones
+   * still queued are dropped.
+   *
+   * @param sourcer, the sourcer
+   */
+  public void unregister(Sourcer sourcer) {
+    Session session = sessions.remove(sourcer);
+    if (session != null) {
+      session.loop.remove(session);
+    }
+  }
+
+  /**
+   * Gets the number of sourcers registered.
+   *
+   * @return the sourcer count
+   */
+  public int getSourcerCount() {
+    return sessions.size();
+  }
+
+  private static class Session {
+    final EventLoop loop;
+    final Sourcer sourcer;
+    final SocketChannel channel;
+    final ChunkQueue queue;
+    final ByteBuffer buffer;
+
+    SelectionKey key = null;
+    boolean writeInterest = false;
+
+    Chunk chunk = null;
+    int offset = 0;
+    boolean pending = false;
+    long dueAt = 0;
+
+    Session(EventLoop loop, Sourcer sourcer, SocketChannel channel, ChunkQueue queue) {
+      this.loop = loop;
+      this.sourcer = sourcer;
+      this.channel = channel;
+      this.queue = queue;
+
+      buffer = ByteBuffer.allocateDirect(sourcer.getSendBufferSize());
+      buffer.flip();
+    }
+
+    /**
+     * Sends as much as the pacing and the socket allow.
+     *
+     * @return the time, as given by System.nanoTime, at which the session wants to be flushed
+     */
+    long flush(long now) throws IOException {
+      while (true) {
+        if (buffer.hasRemaining()) {
+          long start = System.nanoTime();
+          int written = channel.write(buffer);
+          if (written > 0) {
+            sourcer.metrics.sent(written, System.nanoTime() - start);
+            sourcer.timings.bytesSent();
+          }
+          if (buffer.hasRemaining()) {
+            setWriteInterest(true);
+            return Long.MAX_VALUE;
+          }
+          setWriteInterest(false);
+        }
+
+        if (!pending && chunk != null && offset < chunk.size) {
+          fill();
+          continue;
+        }
+
+        if (pending) {
+          if (dueAt - now > 0) {
+            return dueAt;
+          }
+          pending = false;
+          continue;
+        }
+
+        Chunk next = queue.poll(chunk);
+        if (next == null) {
+          return Long.MAX_VALUE;
+        }
+
+        chunk = next;
+        offset = 0;
+        pending = true;
+
+        dueAt = now + Math.max(0, sourcer.getWaitNanos(chunk.data, 0, chunk.size));
+      }
+    }
+
+    /**
+     * Completes the buffer being sent, in blocking mode.
+     */
+    void complete() throws IOException {
+      if (pending) {
+        return;
+      }
+
+      while (true) {
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+
+        if (chunk == null || offset >= chunk.size) {
+          return;
+        }
+        fill();
+      }
+    }
+
+    private void fill() {
+      int len = Math.min(buffer.capacity(), chunk.size - offset);
+
+      buffer.clear();
+      buffer.put(chunk.data, offset, len);
+      buffer.flip();
+
+      offset += len;
+    }
+
+    private void setWriteInterest(boolean interest) {
+      if (writeInterest != interest) {
+        key.interestOps(interest ? SelectionKey.OP_WRITE : 0);
+        writeInterest = interest;
+      }
+    }
+  }
+
+  private class EventLoop implements Runnable {
+    private final Selector selector;
+    private final Thread thread;
+
+    private final ConcurrentLinkedQueue<Session> added = new ConcurrentLinkedQueue<Session>();
+    private final ConcurrentLinkedQueue<Session> removed = new ConcurrentLinkedQueue<Session>();
+    private final List<Session> sessions = new ArrayList<Session>();
+
+    private volatile boolean running = true;
+
+    EventLoop(int index) throws IOException {
+      selector = Selector.open();
+
+      thread = new Thread(this, "jstreamsourcer-engine-" + index);
+      thread.setDaemon(true);
+    }
+
+    void add(Session session) {
+      added.add(session);
+      selector.wakeup();
+    }
+
+    void remove(Session session) {
+      removed.add(session);
+      selector.wakeup();
+    }
+
+    void shutdown() {
+      running = false;
+      selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (running) {
+          processRegistrations();
+
+          long now = System.nanoTime();
+          long wakeAt = now + TICK;
+
+          Iterator<Session> it = sessions.iterator();
+          while (it.hasNext()) {
+            Session session = it.next();
+
+            if (!session.channel.isOpen() || !session.sourcer.started) {
+              it.remove();
+              release(session);
+              continue;
+            }
+
+            try {
+              wakeAt = Math.min(wakeAt, session.flush(now));
+            } catch (IOException e) {
+              it.remove();
+
+              session.sourcer.metrics.writeError();
+              fail(session, e);
+            }
+          }
+
+          long wait = (wakeAt - System.nanoTime() + 999999) / 1000000;
+          if (wait > 0) {
+            selector.select(wait);
+          } else {
+            selector.selectNow();
+          }
+          selector.selectedKeys().clear();
+        }
+      } catch (IOException e) {
+        e.printStackTrace();
+      } finally {
+        for (Session session : sessions) {
+          detach(session);
+        }
+        sessions.clear();
+
+        try {
+          selector.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+
+    private void processRegistrations() {
+      Session session;
+
+      while ((session = added.poll()) != null) {
+        try {
+          session.channel.configureBlocking(false);
+          session.key = session.channel.register(selector, 0, session);
+
+          sessions.add(session);
+        } catch (IOException e) {
+          fail(session, e);
+        }
+      }
+
+      while ((session = removed.poll()) != null) {
+        if (sessions.remove(session)) {
+          detach(session);
+        }
+      }
+    }
+
+    /**
+     * Hands the channel back in blocking mode. The sourcer keeps queuing until the buffer being
+     * sent is completed, so that its own writes never run on the non-blocking channel.
+     */
+    private void detach(Session session) {
+      if (session.key != null) {
+        session.key.cancel();
+      }
+
+      try {
+        selector.selectNow();
+
+        if (session.channel.isOpen()) {
+          session.channel.configureBlocking(true);
+          session.complete();
+        }
+      } catch (IOException e) {
+        fail(session, e);
+        return;
+      }
+
+      release(session);
+    }
+
+    /**
+     * Releases a session whose channel failed, the sourcer handles it as a lost connection.
+     */
+    private void fail(Session session, IOException e) {
+      release(session);
+
+      Sourcer sourcer = session.sourcer;
+      if (!sourcer.started) {
+        return;
+      }
+
+      if (sourcer.listener != null) {
+        sourcer.listener.onError(e.getMessage());
+      }
+
+      sourcer.connectionLost(e);
+    }
+
+    private void release(Session session) {
+      if (session.key != null) {
+        session.key.cancel();
+      }
+
+      session.queue.clear();
+      session.sourcer.detachEngineQueue(session.queue);
+
+      SourcerEngine.this.sessions.remove(session.sourcer, session);
+    }
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+/**
+ * Metrics of a sourcer, as published by the JmxMetricsExporter.
+ */
+public interface SourcerMetricsMXBean {
+
+  boolean isStarted();
+
+  long getBytesSent();
+
+  long getWrites();
+
+  long getFramesWritten();
+
+  long getWriteErrors();
+
+  long getThrottledWrites();
+
+  long getDroppedBuffers();
+
+  int getQueueDepth();
+
+  long getCurrentBitrate();
+
+  long getTargetBitrate();
+
+  double getPacingWaitMillis();
+
+  double getWriteLatencyP50Millis();
+
+  double getWriteLatencyP99Millis();
+
+  double getWriteLatencyMaxMillis();
+
+  long getConnectionAttempts();
+
+  long getConnectionFailures();
+
+  double getHandshakeP99Millis();
+
+  void resetMetrics();
+}
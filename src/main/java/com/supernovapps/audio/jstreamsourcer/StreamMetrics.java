@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the data sent by a sourcer.
+ *
+ * The counters are updated from the write path without locking nor allocating. They are plain
+ * atomic counters, LongAdder not being available on Java 7, a sourcer being written from one
+ * thread at a time anyway. The values read while writing are not a consistent snapshot.
+ */
+public class StreamMetrics {
+  private static final long RATE_WINDOW = 1000000000L;
+
+  private final Sourcer sourcer;
+
+  private final AtomicLong bytesSent = new AtomicLong();
+  private final AtomicLong writes = new AtomicLong();
+  private final AtomicLong framesWritten = new AtomicLong();
+  private final AtomicLong writeErrors = new AtomicLong();
+  private final AtomicLong throttledWrites = new AtomicLong();
+
+  private final LatencyHistogram writeLatency = new LatencyHistogram();
+
+  private volatile long pacingWait = 0;
+
+  private volatile long windowStart = 0;
+  private volatile long windowBytes = 0;
+  private volatile long bitrate = 0;
+
+  StreamMetrics(Sourcer sourcer) {
+    this.sourcer = sourcer;
+  }
+
+  /**
+   * Called with the wait decided by the pacer before sending data.
+   */
+  void paced(long waitNanos) {
+    pacingWait = waitNanos;
+    if (waitNanos > 0) {
+      throttledWrites.incrementAndGet();
+    }
+  }
+
+  /**
+   * Called after data have been written to the server.
+   */
+  void sent(int size, long latencyNanos) {
+    bytesSent.addAndGet(size);
+    writes.incrementAndGet();
+    writeLatency.record(latencyNanos);
+
+    long now = System.nanoTime();
+    long start = windowStart;
+    if (start == 0) {
+      windowStart = now;
+      windowBytes = size;
+    } else if (now - start >= RATE_WINDOW) {
+      bitrate = (windowBytes * 8 * 1000000000L) / (now - start);
+      windowStart = now;
+      windowBytes = size;
+    } else {
+      windowBytes += size;
+    }
+  }
+
+  void framesWritten(int frames) {
+    if (frames > 0) {
+      framesWritten.addAndGet(frames);
+    }
+  }
+
+  void writeError() {
+    writeErrors.incrementAndGet();
+  }
+
+  /**
+   * Gets the number of bytes written to the server, protocol framing included.
+   *
+   * @return the bytes sent
+   */
+  public long getBytesSent() {
+    return bytesSent.get();
+  }
+
+  /**
+   * Gets the number of writes to the server.
+   *
+   * @return the writes
+   */
+  public long getWrites() {
+    return writes.get();
+  }
+
+  /**
+   * Gets the number of audio frames, or Ogg pages, written when a frame format or the Ogg mode
+   * is set.
+   *
+   * @return the frames written
+   */
+  public long getFramesWritten() {
+    return framesWritten.get();
+  }
+
+  public long getWriteErrors() {
+    return writeErrors.get();
+  }
+
+  /**
+   * Gets the number of writes which waited for the pacer, the stream being ahead of real time.
+   *
+   * @return the throttled writes
+   */
+  public long getThrottledWrites() {
+    return throttledWrites.get();
+  }
+
+  /**
+   * Gets the number of buffers dropped because the write queue was full.
+   *
+   * @return the dropped buffers
+   */
+  public long getDroppedBuffers() {
+    return sourcer.getDroppedBuffers();
+  }
+
+  /**
+   * Gets the bitrate measured over the last second of writes, protocol framing included.
+   *
+   * @return the bitrate in bits per second
+   */
+  public long getCurrentBitrate() {
+    return bitrate;
+  }
+
+  /**
+   * Gets the nominal bitrate of the stream.
+   *
+   * @return the bitrate in bits per second
+   */
+  public long getTargetBitrate() {
+    return sourcer.kbps * 1000L;
+  }
+
+  /**
+   * Gets the position on the schedule of the pacer at the last write: positive when ahead of
+   * real time, the write having waited that long, 0 or negative when sent right away, negative
+   * values being the part of the burst left, or how late the stream is, up to the burst.
+   *
+   * @return the wait in nanoseconds
+   */
+  public long getPacingWaitNanos() {
+    return pacingWait;
+  }
+
+  /**
+   * Gets the histogram of the time taken by the writes to the server.
+   *
+   * @return the histogram
+   */
+  public LatencyHistogram getWriteLatency() {
+    return writeLatency;
+  }
+
+  /**
+   * Resets all the counters.
+   */
+  public void reset() {
+    bytesSent.set(0);
+    writes.set(0);
+    framesWritten.set(0);
+    writeErrors.set(0);
+    throttledWrites.set(0);
+    writeLatency.reset();
+
+    pacingWait = 0;
+    windowStart = 0;
+    windowBytes = 0;
+    bitrate = 0;
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package com.supernovapps.audio.jstreamsourcer;
+
+/**
+ * Token bucket pacer based on System.nanoTime, for a constant bitrate.
+ *
+ * The bytes are converted to a duration with an exact integer division, the remainder being
+ * carried to the next data, so that the rounding never drifts.
+ */
+public class TokenBucketPacer extends ClockPacer {
+  private final long bytesPerSecond;
+
+  private long carry = 0;
+
+  /**
+   * Instantiates a new token bucket pacer.
+   *
+   * @param bytesPerSecond, the rate
+   * @param burstBytes, the size of the bucket
+   */
+  public TokenBucketPacer(long bytesPerSecond, long burstBytes) {
+    super(toNanos(burstBytes, bytesPerSecond));
+
+    this.bytesPerSecond = bytesPerSecond;
+  }
+
+  private static long toNanos(long bytes, long bytesPerSecond) {
+    if (bytesPerSecond <= 0) {
+      throw new IllegalArgumentException("Rate must be positive");
+    }
+
+    return bytes * NANOS_PER_SECOND / bytesPerSecond;
+  }
+
+  /**
+   * Instantiates a pacer for a nominal bitrate.
+   *
+   * @param kbps, the bitrate of the stream
+   * @param burst, number of milliseconds of audio that may be sent without waiting
+   * @return the pacer
+   */
+  public static TokenBucketPacer forBitrate(int kbps, int burst) {
+    long bytesPerSecond = kbps * 1000L / 8;
+    return new TokenBucketPacer(bytesPerSecond, bytesPerSecond * burst / 1000);
+  }
+
+  @Override
+  protected long getDurationNanos(byte[] data, int offset, int size) {
+    return getDurationNanos(size);
+  }
+
+  private long getDurationNanos(long size) {
+    long total = size * NANOS_PER_SECOND + carry;
+    carry = total % bytesPerSecond;
+
+    return total / bytesPerSecond;
+  }
+
+  synchronized long getWaitNanos(long size, long now) {
+    return schedule(getDurationNanos(size), now);
+  }
+
+  @Override
+  public synchronized void reset() {
+    super.reset();
+    carry = 0;
+  }
+
+  public long getBytesPerSecond() {
+    return bytesPerSecond;
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+/**
+ * Connection used by a Sourcer to talk to the streaming server.
+ *
+ * The streams are created once per connection and are only meant to be used for the handshake,
+ * the audio data go through the write methods.
+ */
+public interface Transport {
+
+  /**
+   * Connects to the streaming server.
+   *
+   * @param address, the address of the server
+   * @param timeout, the connection timeout in milliseconds
+   * @param sendBufferSize, the size of the socket send buffer
+   */
+  void connect(InetSocketAddress address, int timeout, int sendBufferSize) throws IOException;
+
+  InputStream getInputStream() throws IOException;
+
+  OutputStream getOutputStream() throws IOException;
+
+  void write(byte[] data, int offset, int size) throws IOException;
+
+  void flush() throws IOException;
+
+  void close() throws IOException;
+
+  boolean isConnected();
+}
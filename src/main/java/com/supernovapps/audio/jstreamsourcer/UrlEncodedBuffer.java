@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.nio.charset.Charset;
+
+/**
+ * Growable byte buffer building URLs, reused from one request to the next. The values are
+ * appended in the application/x-www-form-urlencoded form of their UTF-8 bytes.
+ */
+class UrlEncodedBuffer {
+  private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+  private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B',
+      'C', 'D', 'E', 'F'};
+
+  private byte[] buffer;
+  private int size = 0;
+
+  public UrlEncodedBuffer(int capacity) {
+    buffer = new byte[capacity];
+  }
+
+  public UrlEncodedBuffer reset() {
+    size = 0;
+    return this;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Appends ASCII text as it is.
+   *
+   * @param text, text already encoded
+   */
+  public UrlEncodedBuffer append(String text) {
+    int len = text.length();
+    ensure(len);
+    for (int i = 0; i < len; i++) {
+      buffer[size++] = (byte) text.charAt(i);
+    }
+    return this;
+  }
+
+  /**
+   * Appends bytes already encoded.
+   *
+   * @param data, the encoded bytes
+   */
+  public UrlEncodedBuffer append(byte[] data) {
+    ensure(data.length);
+    System.arraycopy(data, 0, buffer, size, data.length);
+    size += data.length;
+    return this;
+  }
+
+  public UrlEncodedBuffer append(int value) {
+    return append(Integer.toString(value));
+  }
+
+  /**
+   * Appends text URL-encoded, null is appended as an empty text.
+   *
+   * @param text, the text to encode
+   */
+  public UrlEncodedBuffer appendEncoded(CharSequence text) {
+    if (text == null) {
+      return this;
+    }
+
+    int len = text.length();
+    for (int i = 0; i < len; i++) {
+      int c = text.charAt(i);
+
+      if (Character.isHighSurrogate((char) c) && i + 1 < len
+          && Character.isLowSurrogate(text.charAt(i + 1))) {
+        c = Character.toCodePoint((char) c, text.charAt(++i));
+      } else if (Character.isSurrogate((char) c)) {
+        c = '?';
+      }
+
+      if (c < 0x80) {
+        appendAscii(c);
+      } else if (c < 0x800) {
+        appendEscaped(0xC0 | c >> 6);
+        appendEscaped(0x80 | c & 0x3F);
+      } else if (c < 0x10000) {
+        appendEscaped(0xE0 | c >> 12);
+        appendEscaped(0x80 | c >> 6 & 0x3F);
+        appendEscaped(0x80 | c & 0x3F);
+      } else {
+        appendEscaped(0xF0 | c >> 18);
+        appendEscaped(0x80 | c >> 12 & 0x3F);
+        appendEscaped(0x80 | c >> 6 & 0x3F);
+        appendEscaped(0x80 | c & 0x3F);
+      }
+    }
+
+    return this;
+  }
+
+  private void appendAscii(int c) {
+    if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.'
+        || c == '-' || c == '*' || c == '_') {
+      ensure(1);
+      buffer[size++] = (byte) c;
+    } else if (c == ' ') {
+      ensure(1);
+      buffer[size++] = '+';
+    } else {
+      appendEscaped(c);
+    }
+  }
+
+  private void appendEscaped(int b) {
+    ensure(3);
+    buffer[size++] = '%';
+    buffer[size++] = HEX[(b >> 4) & 0x0F];
+    buffer[size++] = HEX[b & 0x0F];
+  }
+
+  private void ensure(int len) {
+    if (size + len > buffer.length) {
+      byte[] grown = new byte[Math.max(buffer.length * 2, size + len)];
+      System.arraycopy(buffer, 0, grown, 0, size);
+      buffer = grown;
+    }
+  }
+
+  public byte[] toByteArray() {
+    byte[] data = new byte[size];
+    System.arraycopy(buffer, 0, data, 0, size);
+    return data;
+  }
+
+  @Override
+  public String toString() {
+    return new String(buffer, 0, size, US_ASCII);
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer.audio;
+
+/**
+ * AAC frames in ADTS headers, as sent for the audio/aac and audio/aacp streams.
+ *
+ * AAAAAAAA AAAABCCD EEFFFFGH HHIJKLMM MMMMMMMM MMMOOOOO OOOOOOPP, A: sync, C: layer, D: no CRC,
+ * F: sample rate index, M: frame length, P: number of raw data blocks minus one.
+ */
+public class AdtsFrameFormat implements FrameFormat {
+  public static final int HEADER_SIZE = 7;
+
+  private static final int SAMPLES_PER_BLOCK = 1024;
+
+  private static final int[] SAMPLE_RATES = {96000, 88200, 64000, 48000, 44100, 32000, 24000,
+      22050, 16000, 12000, 11025, 8000, 7350};
+
+  @Override
+  public int getHeaderSize() {
+    return HEADER_SIZE;
+  }
+
+  @Override
+  public int getFrameLength(byte[] data, int offset) {
+    if ((data[offset] & 0xFF) != 0xFF || (data[offset + 1] & 0xF6) != 0xF0) {
+      return -1;
+    }
+
+    if (getSampleRateIndex(data, offset) >= SAMPLE_RATES.length) {
+      return -1;
+    }
+
+    int length = (data[offset + 3] & 0x03) << 11 | (data[offset + 4] & 0xFF) << 3
+        | (data[offset + 5] & 0xFF) >>> 5;
+
+    int headerSize = (data[offset + 1] & 0x01) != 0 ? HEADER_SIZE : HEADER_SIZE + 2;
+    if (length <= headerSize) {
+      return -1;
+    }
+
+    return length;
+  }
+
+  @Override
+  public int getSamples(byte[] data, int offset) {
+    return ((data[offset + 6] & 0x03) + 1) * SAMPLES_PER_BLOCK;
+  }
+
+  /**
+   * Gets the sample rate of the AAC core, half of the output rate for HE-AAC, which also
+   * doubles the samples per frame so that the duration stays right.
+   */
+  @Override
+  public int getSampleRate(byte[] data, int offset) {
+    return SAMPLE_RATES[getSampleRateIndex(data, offset)];
+  }
+
+  private static int getSampleRateIndex(byte[] data, int offset) {
+    return (data[offset + 2] >>> 2) & 0x0F;
+  }
+}
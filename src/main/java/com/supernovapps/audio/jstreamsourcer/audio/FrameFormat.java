@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package com.supernovapps.audio.jstreamsourcer.audio;
+
+/**
+ * Describes how to find the frames of an audio stream.
+ */
+public interface FrameFormat {
+
+  /**
+   * Gets the number of bytes needed to decode a frame header.
+   *
+   * @return the header size
+   */
+  int getHeaderSize();
+
+  /**
+   * Checks if a frame starts at the given position.
+   *
+   * @param data, buffer holding at least getHeaderSize bytes from offset
+   * @param offset, the position to check
+   * @return the length of the frame, header included, or -1 if no frame starts here
+   */
+  int getFrameLength(byte[] data, int offset);
+
+  /**
+   * Gets the number of samples per channel of the frame starting at the given position, 0 for
+   * the frames not carrying any audio, as tags.
+   *
+   * @param data, buffer holding a valid frame header from offset
+   * @param offset, the position of the frame
+   * @return the number of samples
+   */
+  int getSamples(byte[] data, int offset);
+
+  /**
+   * Gets the sample rate of the frame starting at the given position.
+   *
+   * @param data, buffer holding a valid frame header from offset
+   * @param offset, the position of the frame
+   * @return the sample rate in Hz
+   */
+  int getSampleRate(byte[] data, int offset);
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package com.supernovapps.audio.jstreamsourcer.audio;
+
+/**
+ * MPEG audio (MP3) frames. ID3v2 tags are handled as frames without audio so that they are
+ * skipped as a whole.
+ */
+public class Mp3FrameFormat implements FrameFormat {
+  private static final int ID3_HEADER_SIZE = 10;
+
+  @Override
+  public int getHeaderSize() {
+    return ID3_HEADER_SIZE;
+  }
+
+  @Override
+  public int getFrameLength(byte[] data, int offset) {
+    if (isId3(data, offset)) {
+      return getId3Length(data, offset);
+    }
+
+    int header = MpegAudioHeader.read(data, offset);
+    if (!MpegAudioHeader.isValid(header)) {
+      return -1;
+    }
+
+    return MpegAudioHeader.getFrameLength(header);
+  }
+
+  @Override
+  public int getSamples(byte[] data, int offset) {
+    if (isId3(data, offset)) {
+      return 0;
+    }
+
+    return MpegAudioHeader.getSamplesPerFrame(MpegAudioHeader.read(data, offset));
+  }
+
+  @Override
+  public int getSampleRate(byte[] data, int offset) {
+    if (isId3(data, offset)) {
+      return 0;
+    }
+
+    return MpegAudioHeader.getSampleRate(MpegAudioHeader.read(data, offset));
+  }
+
+  private static boolean isId3(byte[] data, int offset) {
+    return data[offset] == 'I' && data[offset + 1] == 'D' && data[offset + 2] == '3';
+  }
+
+  private static int getId3Length(byte[] data, int offset) {
+    int length = 0;
+    for (int i = 6; i < ID3_HEADER_SIZE; i++) {
+      if ((data[offset + i] & 0x80) != 0) {
+        return -1;
+      }
+      length = length << 7 | data[offset + i];
+    }
+
+    // footer present
+    if ((data[offset + 5] & 0x10) != 0) {
+      length += ID3_HEADER_SIZE;
+    }
+
+    return length + ID3_HEADER_SIZE;
+  }
+}
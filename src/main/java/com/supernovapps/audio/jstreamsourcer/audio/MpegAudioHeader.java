@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package com.supernovapps.audio.jstreamsourcer.audio;
+
+/**
+ * Decoding of the 32 bits MPEG audio frame header.
+ *
+ * AAAAAAAA AAABBCCD EEEEFFGH IIJJKLMM, A: sync, B: version, C: layer, E: bitrate index,
+ * F: sample rate index, G: padding.
+ */
+public class MpegAudioHeader {
+  public static final int HEADER_SIZE = 4;
+
+  private static final int VERSION_1 = 3;
+
+  private static final int LAYER_3 = 1;
+  private static final int LAYER_2 = 2;
+  private static final int LAYER_1 = 3;
+
+  private static final int[][] BITRATES_V1 = {
+      {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+      {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+      {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320}};
+
+  private static final int[][] BITRATES_V2 = {
+      {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+      {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160},
+      {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}};
+
+  private static final int[][] SAMPLE_RATES = {
+      {11025, 12000, 8000}, null, {22050, 24000, 16000}, {44100, 48000, 32000}};
+
+  private MpegAudioHeader() {}
+
+  public static int read(byte[] data, int offset) {
+    return (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16
+        | (data[offset + 2] & 0xFF) << 8 | (data[offset + 3] & 0xFF);
+  }
+
+  private static int getVersion(int header) {
+    return (header >>> 19) & 0x3;
+  }
+
+  private static int getLayer(int header) {
+    return (header >>> 17) & 0x3;
+  }
+
+  /**
+   * Checks the sync word and that the header does not use any reserved or free format value.
+   *
+   * @param header, the header
+   * @return true, if valid
+   */
+  public static boolean isValid(int header) {
+    if ((header & 0xFFE00000) != 0xFFE00000) {
+      return false;
+    }
+
+    int bitrateIndex = (header >>> 12) & 0xF;
+    int sampleRateIndex = (header >>> 10) & 0x3;
+
+    return getVersion(header) != 1 && getLayer(header) != 0 && bitrateIndex != 0
+        && bitrateIndex != 15 && sampleRateIndex != 3;
+  }
+
+  /**
+   * Gets the bitrate of a valid header.
+   *
+   * @param header, the header
+   * @return the bitrate in kbps
+   */
+  public static int getBitrate(int header) {
+    int[][] bitrates = getVersion(header) == VERSION_1 ? BITRATES_V1 : BITRATES_V2;
+    return bitrates[LAYER_1 - getLayer(header)][(header >>> 12) & 0xF];
+  }
+
+  /**
+   * Gets the sample rate of a valid header.
+   *
+   * @param header, the header
+   * @return the sample rate in Hz
+   */
+  public static int getSampleRate(int header) {
+    return SAMPLE_RATES[getVersion(header)][(header >>> 10) & 0x3];
+  }
+
+  /**
+   * Gets the number of samples per channel of a frame.
+   *
+   * @param header, the header
+   * @return the number of samples
+   */
+  public static int getSamplesPerFrame(int header) {
+    switch (getLayer(header)) {
+      case LAYER_1:
+        return 384;
+      case LAYER_2:
+        return 1152;
+      default:
+        return getVersion(header) == VERSION_1 ? 1152 : 576;
+    }
+  }
+
+  /**
+   * Gets the length of a frame, header included.
+   *
+   * @param header, the header
+   * @return the length in bytes
+   */
+  public static int getFrameLength(int header) {
+    int bitrate = getBitrate(header) * 1000;
+    int sampleRate = getSampleRate(header);
+    int padding = (header >>> 9) & 0x1;
+
+    switch (getLayer(header)) {
+      case LAYER_1:
+        return (12 * bitrate / sampleRate + padding) * 4;
+      case LAYER_2:
+        return 144 * bitrate / sampleRate + padding;
+      default:
+        int coefficient = getVersion(header) == VERSION_1 ? 144 : 72;
+        return coefficient * bitrate / sampleRate + padding;
+    }
+  }
+}
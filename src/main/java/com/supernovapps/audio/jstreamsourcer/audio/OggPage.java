@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer.audio;
+
+/**
+ * Decoding of the Ogg page header.
+ *
+ * "OggS" (4 bytes), version (1), header type (1), granule position (8, little endian), serial
+ * number (4), page sequence (4), CRC (4), number of segments (1), segment table, data.
+ */
+public class OggPage {
+  public static final int HEADER_SIZE = 27;
+
+  private static final byte[] CAPTURE = {'O', 'g', 'g', 'S', 0};
+
+  public static final int CONTINUED = 0x01;
+  public static final int BEGINNING_OF_STREAM = 0x02;
+  public static final int END_OF_STREAM = 0x04;
+
+  /**
+   * Granule position of the pages on which no packet ends.
+   */
+  public static final long NO_GRANULE = -1;
+
+  private OggPage() {}
+
+  /**
+   * Gets the length of the page starting at the given position.
+   *
+   * @param data, buffer of data
+   * @param offset, the position of the page
+   * @param available, the number of bytes available from offset
+   * @return the length of the page, 0 if more data are needed to know it, -1 if no page starts
+   * here
+   */
+  public static int getLength(byte[] data, int offset, int available) {
+    int len = Math.min(available, CAPTURE.length);
+    for (int i = 0; i < len; i++) {
+      if (data[offset + i] != CAPTURE[i]) {
+        return -1;
+      }
+    }
+
+    if (available < HEADER_SIZE) {
+      return 0;
+    }
+
+    int segments = data[offset + 26] & 0xFF;
+    if (available < HEADER_SIZE + segments) {
+      return 0;
+    }
+
+    int length = HEADER_SIZE + segments;
+    for (int i = 0; i < segments; i++) {
+      length += data[offset + HEADER_SIZE + i] & 0xFF;
+    }
+
+    return length;
+  }
+
+  public static int getHeaderType(byte[] data, int offset) {
+    return data[offset + 5] & 0xFF;
+  }
+
+  public static boolean isBeginningOfStream(byte[] data, int offset) {
+    return (getHeaderType(data, offset) & BEGINNING_OF_STREAM) != 0;
+  }
+
+  public static long getGranulePosition(byte[] data, int offset) {
+    long granule = 0;
+    for (int i = 13; i >= 6; i--) {
+      granule = granule << 8 | (data[offset + i] & 0xFF);
+    }
+    return granule;
+  }
+
+  public static int getSerialNumber(byte[] data, int offset) {
+    return (data[offset + 14] & 0xFF) | (data[offset + 15] & 0xFF) << 8
+        | (data[offset + 16] & 0xFF) << 16 | (data[offset + 17] & 0xFF) << 24;
+  }
+
+  /**
+   * Gets the position of the data of a page.
+   *
+   * @param data, buffer holding the page header
+   * @param offset, the position of the page
+   * @return the position of the first packet
+   */
+  public static int getDataOffset(byte[] data, int offset) {
+    return offset + HEADER_SIZE + (data[offset + 26] & 0xFF);
+  }
+
+  /**
+   * Gets the sample rate of the granule positions of a logical stream, from the identification
+   * header carried by its first page: 48000 for Opus, the nominal rate for Vorbis.
+   *
+   * @param data, buffer holding the whole first page
+   * @param offset, the position of the page
+   * @param length, the length of the page
+   * @return the sample rate in Hz, 0 if the codec is not known
+   */
+  public static int getSampleRate(byte[] data, int offset, int length) {
+    int packet = getDataOffset(data, offset);
+    int available = offset + length - packet;
+
+    if (available >= 8 && startsWith(data, packet, "OpusHead")) {
+      return 48000;
+    }
+
+    if (available >= 16 && data[packet] == 0x01 && startsWith(data, packet + 1, "vorbis")) {
+      return (data[packet + 12] & 0xFF) | (data[packet + 13] & 0xFF) << 8
+          | (data[packet + 14] & 0xFF) << 16 | (data[packet + 15] & 0xFF) << 24;
+    }
+
+    return 0;
+  }
+
+  private static boolean startsWith(byte[] data, int offset, String text) {
+    for (int i = 0; i < text.length(); i++) {
+      if (data[offset + i] != text.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.supernovapps.audio.jstreamsourcer.ultravox2;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -64,6 +65,16 @@ public class Message {
   public static final short CACHEABLE_METADATA1_XML_AOL_METADATA = 0x901;
   public static final short CACHEABLE_METADATA1_XML_SHOUCAST_METADATA = 0x902;
 
+  /*
+   * binary metadata type, the picture kind (0x100 bit) combined with the image format (low bits)
+   */
+  public static final short BINARY_METADATA_STATION_ART = 0x000;
+  public static final short BINARY_METADATA_PLAYING_ART = 0x100;
+  public static final short BINARY_METADATA_JPEG = 0x000;
+  public static final short BINARY_METADATA_PNG = 0x001;
+  public static final short BINARY_METADATA_BMP = 0x002;
+  public static final short BINARY_METADATA_GIF = 0x003;
+
   /*
    * data type
    */
@@ -77,7 +88,13 @@ public class Message {
    */
   public static final String ULTVX_VERSION = "2.1";
 
-  private static final int HEADER_SIZE = 6;
+  public static final int HEADER_SIZE = 6;
+  public static final int TRAILER_SIZE = 1;
+
+  /*
+   * Ultravox 2.1 limits a message to 16 KB, header and trailer included
+   */
+  public static final int MAX_PAYLOAD_SIZE = 16377;
 
   /*
    * Message fields
@@ -96,44 +113,78 @@ public class Message {
       len = payload.length;
     }
 
-    byte[] buffer = new byte[len + 7];
+    byte[] buffer = new byte[len + HEADER_SIZE + TRAILER_SIZE];
+    encode(sync, resQos, msgClass, msgType, payload, 0, len, buffer, 0);
+    buffer[len + HEADER_SIZE] = trailing;
+
+    return buffer;
+  }
+
+  /**
+   * Encodes a message into the given buffer, without any allocation.
+   *
+   * @param msgClass, the message class
+   * @param msgType, the message type
+   * @param payload, the payload, null if it has already been copied after the header
+   * @param offset, the offset of the payload
+   * @param len, the length of the payload
+   * @param buffer, the destination buffer, needs len + 7 bytes available
+   * @param bufferOffset, the offset in the destination buffer
+   * @return the number of bytes written
+   */
+  static public int encode(byte msgClass, short msgType, byte[] payload, int offset, int len,
+      byte[] buffer, int bufferOffset) {
+    return encode(SYNC, (byte) 0, msgClass, msgType, payload, offset, len, buffer, bufferOffset);
+  }
 
-    buffer[0] = sync;
-    buffer[1] = resQos;
+  static private int encode(byte sync, byte resQos, byte msgClass, short msgType, byte[] payload,
+      int offset, int len, byte[] buffer, int bufferOffset) {
+    buffer[bufferOffset] = sync;
+    buffer[bufferOffset + 1] = resQos;
 
-    buffer[2] = (byte) (((msgClass << 4) | (msgType >> 8)) & 0xFF);
-    buffer[3] = (byte) (msgType & 0xFF);
+    buffer[bufferOffset + 2] = (byte) (((msgClass << 4) | (msgType >> 8)) & 0xFF);
+    buffer[bufferOffset + 3] = (byte) (msgType & 0xFF);
 
-    buffer[4] = (byte) ((len >> 8) & 0xFF);
-    buffer[5] = (byte) (len & 0xFF);
+    buffer[bufferOffset + 4] = (byte) ((len >> 8) & 0xFF);
+    buffer[bufferOffset + 5] = (byte) (len & 0xFF);
 
-    if (payload != null) {
-      System.arraycopy(payload, 0, buffer, HEADER_SIZE, len);
+    if (payload != null && len > 0) {
+      System.arraycopy(payload, offset, buffer, bufferOffset + HEADER_SIZE, len);
     }
 
-    buffer[len + 6] = trailing;
+    buffer[bufferOffset + HEADER_SIZE + len] = 0x00;
 
-    return buffer;
+    return len + HEADER_SIZE + TRAILER_SIZE;
   }
 
   static public Message decodeHeader(byte[] buffer) throws IOException {
-    Message msg = new Message();
-
-    msg.sync = buffer[0];
-    if (msg.sync != SYNC) {
+    if (buffer[0] != SYNC) {
       throw new IOException("Malformed message header");
     }
 
-    msg.resQos = buffer[1];
+    Message msg = parseHeader(buffer, 0);
+    msg.payload = new byte[msg.payloadLen];
 
-    msg.msgClass = (byte) ((buffer[2] >> 4) & 0xFF);
-    msg.msgType = (short) (buffer[2] & 0x0F);
-    msg.msgType = (short) (msg.msgType << 8 | buffer[3]);
+    return msg;
+  }
 
-    int length = buffer[4] ;
-    msg.payloadLen = ((length << 8 | buffer[5]) & 0xFF);
+  /**
+   * Decodes the fields of a header, the bytes being read as unsigned.
+   *
+   * @param buffer, buffer holding the header
+   * @param offset, the offset of the header
+   * @return the message, without payload
+   */
+  static Message parseHeader(byte[] buffer, int offset) {
+    Message msg = new Message();
 
-    msg.payload = new byte[msg.payloadLen];
+    msg.sync = buffer[offset];
+    msg.resQos = buffer[offset + 1];
+
+    msg.msgClass = (byte) ((buffer[offset + 2] >> 4) & 0x0F);
+    msg.msgType = (short) ((buffer[offset + 2] & 0x0F) << 8 | (buffer[offset + 3] & 0xFF));
+
+    msg.payloadLen = (buffer[offset + 4] & 0xFF) << 8 | (buffer[offset + 5] & 0xFF);
 
     return msg;
   }
@@ -146,20 +197,19 @@ public class Message {
     return msg;
   }
 
+  /**
+   * Reads a whole message, waiting for the rest of it on short reads.
+   *
+   * @param in, the stream to read from
+   * @return the message
+   * @see MessageDecoder, for a decoder also recovering from garbage
+   */
   static public Message read(InputStream in) throws IOException {
-    byte[] buffer = new byte[6];
-
-    int ret = in.read(buffer);
-    if (ret != buffer.length) {
-      throw new IOException("Malformed message" + in.available());
-    }
+    byte[] buffer = new byte[HEADER_SIZE];
+    readFully(in, buffer, 0, buffer.length);
 
     Message msg = decodeHeader(buffer);
-
-    ret = in.read(msg.payload, 0, msg.payloadLen);
-    if (ret != msg.payload.length) {
-      throw new IOException("Malformed message");
-    }
+    readFully(in, msg.payload, 0, msg.payloadLen);
 
     // trailing
     int t = in.read();
@@ -169,4 +219,21 @@ public class Message {
 
     return msg;
   }
+
+  private static void readFully(InputStream in, byte[] buffer, int offset, int len)
+      throws IOException {
+    while (len > 0) {
+      int ret = in.read(buffer, offset, len);
+      if (ret < 0) {
+        throw new EOFException("Connection closed");
+      }
+
+      offset += ret;
+      len -= ret;
+    }
+  }
+
+  static boolean isSync(byte b) {
+    return b == SYNC;
+  }
 }
@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer.ultravox2;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Streaming decoder of Ultravox messages.
+ *
+ * The data are consumed as they come, a message may be split across any number of reads. The
+ * bytes which do not start a valid message header are skipped up to the next sync byte, so that
+ * the decoder gets back in sync by itself. A message not ending with the 0x00 trailer was started
+ * by a false sync byte: its bytes are scanned again from the byte following it, so that a valid
+ * message they hide is not lost. The only allocation per message is its payload.
+ */
+public class MessageDecoder {
+  private static final int READ_BUFFER_SIZE = 4096;
+
+  private final int maxPayload;
+
+  private final byte[] header = new byte[Message.HEADER_SIZE];
+  private int headerLen = 0;
+
+  private Message message = null;
+  private int payloadRead = 0;
+
+  private ByteBuffer readBuffer = null;
+
+  private ByteBuffer rescan = null;
+
+  private long skipped = 0;
+
+  public MessageDecoder() {
+    this(Message.MAX_PAYLOAD_SIZE);
+  }
+
+  /**
+   * Instantiates a new decoder.
+   *
+   * @param maxPayload, the largest payload accepted, the longer messages being skipped
+   */
+  public MessageDecoder(int maxPayload) {
+    this.maxPayload = maxPayload;
+  }
+
+  /**
+   * Decodes the next message from the given buffer, consuming the data up to the end of the
+   * message.
+   *
+   * @param in, the data, read from its position to its limit
+   * @return the message, null if all the data have been consumed without completing one
+   */
+  public Message decode(ByteBuffer in) {
+    while (true) {
+      // the bytes of a rejected message come first, they were read before the ones of in
+      ByteBuffer src = rescan != null ? rescan : in;
+      if (!src.hasRemaining()) {
+        if (src == in) {
+          return null;
+        }
+        rescan = null;
+        continue;
+      }
+
+      Message msg = decodeFrom(src);
+      if (msg != null) {
+        return msg;
+      }
+    }
+  }
+
+  /**
+   * Decodes from the given buffer until a message is completed, the buffer is consumed or a
+   * message is rejected.
+   */
+  private Message decodeFrom(ByteBuffer in) {
+    while (in.hasRemaining()) {
+      if (message == null) {
+        byte b = in.get();
+        if (headerLen == 0 && !Message.isSync(b)) {
+          skipped++;
+          continue;
+        }
+
+        header[headerLen++] = b;
+        if (headerLen < header.length) {
+          continue;
+        }
+
+        Message msg = Message.parseHeader(header, 0);
+        if (msg.payloadLen > maxPayload) {
+          resync();
+          continue;
+        }
+
+        msg.payload = new byte[msg.payloadLen];
+        message = msg;
+        payloadRead = 0;
+        continue;
+      }
+
+      if (payloadRead < message.payloadLen) {
+        int len = Math.min(message.payloadLen - payloadRead, in.remaining());
+        in.get(message.payload, payloadRead, len);
+        payloadRead += len;
+        continue;
+      }
+
+      Message msg = message;
+      message = null;
+      headerLen = 0;
+
+      msg.trailing = in.get();
+      if (msg.trailing != 0x00) {
+        reject(msg, in);
+        return null;
+      }
+
+      return msg;
+    }
+
+    return null;
+  }
+
+  /**
+   * Drops the sync byte of a message with an invalid trailer, and scans its other bytes again
+   * from the next sync byte, before the rest of the data being decoded.
+   */
+  private void reject(Message msg, ByteBuffer in) {
+    int len = Message.HEADER_SIZE + msg.payloadLen + Message.TRAILER_SIZE;
+
+    byte[] consumed = new byte[len];
+    System.arraycopy(header, 0, consumed, 0, Message.HEADER_SIZE);
+    System.arraycopy(msg.payload, 0, consumed, Message.HEADER_SIZE, msg.payloadLen);
+    consumed[len - 1] = msg.trailing;
+
+    int next = 1;
+    while (next < len && !Message.isSync(consumed[next])) {
+      next++;
+    }
+    skipped += next;
+
+    // when already rescanning, what is left of it still has to be decoded afterwards
+    int left = in == rescan ? in.remaining() : 0;
+
+    byte[] data = new byte[len - next + left];
+    System.arraycopy(consumed, next, data, 0, len - next);
+    in.get(data, len - next, left);
+
+    rescan = ByteBuffer.wrap(data);
+  }
+
+  /**
+   * Drops the sync byte of an invalid header, and keeps what follows from the next sync byte.
+   */
+  private void resync() {
+    int next = 1;
+    while (next < headerLen && !Message.isSync(header[next])) {
+      next++;
+    }
+
+    skipped += next;
+    headerLen -= next;
+    System.arraycopy(header, next, header, 0, headerLen);
+  }
+
+  /**
+   * Reads the next message from a channel. With a non-blocking channel, returns null when no
+   * data is available yet, the partial message being kept for the next call.
+   *
+   * @param channel, the channel to read from
+   * @return the message, null if the channel has no data available
+   */
+  public Message read(ReadableByteChannel channel) throws IOException {
+    ByteBuffer buffer = getReadBuffer();
+
+    while (true) {
+      Message msg = decode(buffer);
+      if (msg != null) {
+        return msg;
+      }
+
+      buffer.clear();
+      int ret = channel.read(buffer);
+      buffer.flip();
+
+      if (ret < 0) {
+        throw new EOFException("Connection closed");
+      }
+
+      if (ret == 0) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Reads the next message from a stream, waiting until it is complete. The data read beyond
+   * the message are kept for the next call, so the stream should only be read through this
+   * decoder.
+   *
+   * @param in, the stream to read from
+   * @return the message
+   */
+  public Message read(InputStream in) throws IOException {
+    ByteBuffer buffer = getReadBuffer();
+
+    while (true) {
+      Message msg = decode(buffer);
+      if (msg != null) {
+        return msg;
+      }
+
+      int ret = in.read(buffer.array(), 0, buffer.capacity());
+      if (ret < 0) {
+        throw new EOFException("Connection closed");
+      }
+
+      buffer.position(0);
+      buffer.limit(ret);
+    }
+  }
+
+  private ByteBuffer getReadBuffer() {
+    if (readBuffer == null) {
+      readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+      readBuffer.limit(0);
+    }
+    return readBuffer;
+  }
+
+  /**
+   * Forgets the partial message and the data read ahead, called when the connection changes.
+   */
+  public void reset() {
+    headerLen = 0;
+    message = null;
+    payloadRead = 0;
+    rescan = null;
+
+    if (readBuffer != null) {
+      readBuffer.limit(0);
+    }
+  }
+
+  /**
+   * Gets the number of bytes skipped to get back in sync.
+   *
+   * @return the skipped bytes
+   */
+  public long getSkippedBytes() {
+    return skipped;
+  }
+}
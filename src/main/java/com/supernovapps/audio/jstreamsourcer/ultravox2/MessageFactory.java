@@ -16,25 +16,7 @@
 
 package com.supernovapps.audio.jstreamsourcer.ultravox2;
 
-import java.io.StringWriter;
-import java.io.UnsupportedEncodingException;
-import java.util.ArrayList;
-import java.util.List;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.TransformerFactoryConfigurationError;
-import javax.xml.transform.dom.DOMSource;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-
-import com.supernovapps.audio.jstreamsourcer.Sourcer;
+import com.supernovapps.audio.jstreamsourcer.Metadata;
 
 public class MessageFactory {
   static public Message getRequestCipherMessage() {
@@ -204,93 +186,34 @@ public class MessageFactory {
    * <TRSN></TRSN> <WORS></WORS> </metadata>
    */
   static public Message[] getMetadata(String song, String artist, String album, int payloadLen) {
-    List<Message> msgs = new ArrayList<Message>();
+    return getMetadata(new Metadata(song, artist, album), payloadLen);
+  }
 
-    String xml = getMetadataXmlString(song, artist, album);
-    if (xml == null) {
-      return msgs.toArray(new Message[msgs.size()]);
-    }
+  static public Message[] getMetadata(Metadata metadata, int payloadLen) {
+    MetadataXmlEncoder encoder = new MetadataXmlEncoder().encode(metadata);
+    MetadataFragmenter fragmenter = new MetadataFragmenter(payloadLen);
 
-    /*
-     * [Metadata ID] (16bits) [Metadata Span] (16 bits) [Metadata Index] (16 bits)
-     *
-     * Total: 6 bytes
-     */
-    int size = payloadLen - 6;
-    List<String> metadatas = new ArrayList<String>();
-    for (int index = 0; index < xml.length(); index += size) {
-      metadatas.add(xml.substring(index, Math.min(index + size, xml.length())));
-      index += size;
-    }
+    int id = MetadataFragmenter.nextId();
+    int span = fragmenter.getSpan(encoder.size());
 
-    short msgId = (short) (Math.floor(Math.random() * 32) + 1);
-    short msgSpan = (short) metadatas.size();
-    short msgIndex = 1;
-    for (String metadata : metadatas) {
-      Message msg = new Message();
+    Message[] msgs = new Message[span];
+    for (int index = 1; index <= span; index++) {
+      int len =
+          fragmenter.encode(Message.CLASS_CACHEABLE_METADATA1,
+              Message.CACHEABLE_METADATA1_XML_SHOUCAST_METADATA, id, encoder.getBuffer(),
+              encoder.size(), index);
 
+      Message msg = new Message();
       msg.msgClass = Message.CLASS_CACHEABLE_METADATA1;
       msg.msgType = Message.CACHEABLE_METADATA1_XML_SHOUCAST_METADATA;
 
-      msg.payload = new byte[6 + metadata.length()];
-      msg.payload[0] = 0;
-      msg.payload[1] = (byte) msgId;
-      msg.payload[2] = 0;
-      msg.payload[3] = (byte) msgSpan;
-      msg.payload[4] = 0;
-      msg.payload[5] = (byte) msgIndex;
-
-      try {
-        byte[] metadataBytes = metadata.getBytes("UTF8");
-        System.arraycopy(metadataBytes, 0, msg.payload, 6, metadataBytes.length);
-      } catch (UnsupportedEncodingException e) {
-        continue;
-      }
-
-      msgs.add(msg);
-      msgIndex++;
-    }
-
-    return msgs.toArray(new Message[msgs.size()]);
-  }
-
-  private static String getMetadataXmlString(String song, String artist, String album)
-      throws TransformerFactoryConfigurationError {
-    DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-    try {
-      DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
-      Document doc = docBuilder.newDocument();
-
-      Element rootElement = doc.createElement("metadata");
-      doc.appendChild(rootElement);
-
-      appendElement(rootElement, "TIT2", song);
-      appendElement(rootElement, "TALB", album);
-      appendElement(rootElement, "TPE1", artist);
-      appendElement(rootElement, "TENC", Sourcer.USER_AGENT);
-
-      TransformerFactory transformerFactory = TransformerFactory.newInstance();
-      Transformer transformer = transformerFactory.newTransformer();
-      DOMSource source = new DOMSource(doc);
+      msg.payload = new byte[len - Message.HEADER_SIZE - Message.TRAILER_SIZE];
+      System.arraycopy(fragmenter.getBuffer(), Message.HEADER_SIZE, msg.payload, 0,
+          msg.payload.length);
 
-      StringWriter outWriter = new StringWriter();
-      StreamResult result = new StreamResult(outWriter);
-
-      transformer.transform(source, result);
-      StringBuffer sb = outWriter.getBuffer();
-      String xml = sb.toString();
-
-      return xml;
-    } catch (ParserConfigurationException | TransformerException e) {
-      e.printStackTrace();
+      msgs[index - 1] = msg;
     }
 
-    return null;
-  }
-
-  private static void appendElement(Element rootElement, String el, String text) {
-    Element e = rootElement.getOwnerDocument().createElement(el);
-    e.setTextContent(text);
-    rootElement.appendChild(e);
+    return msgs;
   }
 }
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer.ultravox2;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits an encoded metadata document in cacheable metadata messages:
+ *
+ * [Metadata ID] (16 bits) [Metadata Span] (16 bits) [Metadata Index] (16 bits) [Data]
+ *
+ * The span is the number of messages and the index of the first message is 1. The messages are
+ * encoded one at a time into a buffer reused from one message to the next.
+ */
+public class MetadataFragmenter {
+  public static final int FRAGMENT_HEADER_SIZE = 6;
+
+  /**
+   * Position of the data of a message in the buffer.
+   */
+  public static final int DATA_OFFSET = Message.HEADER_SIZE + FRAGMENT_HEADER_SIZE;
+
+  private static final int MAX_SPAN = 0xFFFF;
+
+  private static final AtomicInteger ids = new AtomicInteger();
+
+  private final int payloadLen;
+  private final int chunkSize;
+  private final byte[] buffer;
+
+  /**
+   * Instantiates a fragmenter.
+   *
+   * @param payloadLen, the max payload of the messages
+   */
+  public MetadataFragmenter(int payloadLen) {
+    if (payloadLen <= FRAGMENT_HEADER_SIZE) {
+      throw new IllegalArgumentException("Payload too small for metadata: " + payloadLen);
+    }
+
+    this.payloadLen = payloadLen;
+    chunkSize = payloadLen - FRAGMENT_HEADER_SIZE;
+    buffer = new byte[Message.HEADER_SIZE + payloadLen + Message.TRAILER_SIZE];
+  }
+
+  public int getPayloadLen() {
+    return payloadLen;
+  }
+
+  /**
+   * Gets the maximum size of the data carried by a message.
+   *
+   * @return the chunk size
+   */
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * Gets a new metadata id, the ids cycle from 1 to 0x7FFF.
+   *
+   * @return the metadata id
+   */
+  public static int nextId() {
+    return (ids.getAndIncrement() & 0x7FFF) % 0x7FFF + 1;
+  }
+
+  /**
+   * Gets the number of messages needed for a document.
+   *
+   * @param size, the size of the document
+   * @return the span
+   */
+  public int getSpan(int size) {
+    int span = Math.max(1, (size + chunkSize - 1) / chunkSize);
+    if (span > MAX_SPAN) {
+      throw new IllegalArgumentException("Metadata too large: " + size + " bytes");
+    }
+
+    return span;
+  }
+
+  /**
+   * Encodes a message of a document in the buffer.
+   *
+   * @param msgClass, the class of the message
+   * @param msgType, the type of the message
+   * @param id, the metadata id
+   * @param data, the document
+   * @param size, the size of the document
+   * @param index, the index of the message, from 1 to the span
+   * @return the size of the encoded message
+   */
+  public int encode(byte msgClass, short msgType, int id, byte[] data, int size, int index) {
+    int span = getSpan(size);
+    if (index < 1 || index > span) {
+      throw new IllegalArgumentException("Index out of span: " + index);
+    }
+
+    int offset = (index - 1) * chunkSize;
+    int len = Math.min(chunkSize, size - offset);
+
+    System.arraycopy(data, offset, buffer, DATA_OFFSET, len);
+
+    return encode(msgClass, msgType, id, span, index, len);
+  }
+
+  /**
+   * Encodes a message whose data have already been written in the buffer, at DATA_OFFSET.
+   *
+   * @param msgClass, the class of the message
+   * @param msgType, the type of the message
+   * @param id, the metadata id
+   * @param span, the number of messages of the document
+   * @param index, the index of the message, from 1 to the span
+   * @param len, the size of the data, at most the chunk size
+   * @return the size of the encoded message
+   */
+  public int encode(byte msgClass, short msgType, int id, int span, int index, int len) {
+    int pos = Message.HEADER_SIZE;
+    buffer[pos++] = (byte) (id >> 8);
+    buffer[pos++] = (byte) id;
+    buffer[pos++] = (byte) (span >> 8);
+    buffer[pos++] = (byte) span;
+    buffer[pos++] = (byte) (index >> 8);
+    buffer[pos++] = (byte) index;
+
+    return Message.encode(msgClass, msgType, null, 0, FRAGMENT_HEADER_SIZE + len, buffer, 0);
+  }
+
+  /**
+   * Encodes all the messages of a document, one after the other.
+   *
+   * @param msgClass, the class of the messages
+   * @param msgType, the type of the messages
+   * @param id, the metadata id
+   * @param data, the document
+   * @param size, the size of the document
+   * @return the encoded messages
+   */
+  public byte[] encodeAll(byte msgClass, short msgType, int id, byte[] data, int size) {
+    int span = getSpan(size);
+    int overhead = Message.HEADER_SIZE + FRAGMENT_HEADER_SIZE + Message.TRAILER_SIZE;
+
+    byte[] frames = new byte[size + span * overhead];
+
+    int offset = 0;
+    for (int index = 1; index <= span; index++) {
+      int len = encode(msgClass, msgType, id, data, size, index);
+      System.arraycopy(buffer, 0, frames, offset, len);
+      offset += len;
+    }
+
+    return frames;
+  }
+
+  /**
+   * Gets the buffer holding the last encoded message.
+   *
+   * @return the buffer
+   */
+  public byte[] getBuffer() {
+    return buffer;
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer.ultravox2;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.supernovapps.audio.jstreamsourcer.Metadata;
+
+/**
+ * LRU cache of the encoded metadata messages, so that the items played again and again, as
+ * jingles or ads, are sent without being encoded again. The cache is bounded by the size of the
+ * messages it holds and can be shared by several sourcers.
+ */
+public class MetadataFrameCache {
+  public static final long DEFAULT_MAX_BYTES = 128 * 1024;
+
+  /*
+   * Values of the metadata fields and max payload the messages were encoded for
+   */
+  private static final class Key {
+    private final String[] fields;
+    private final int payloadLen;
+    private final int hash;
+
+    Key(Metadata metadata, int payloadLen) {
+      Map<String, String> tags = metadata.getTags();
+
+      fields = new String[11 + tags.size() * 2];
+      fields[0] = metadata.getSong();
+      fields[1] = metadata.getArtist();
+      fields[2] = metadata.getAlbum();
+      fields[3] = metadata.getYear();
+      fields[4] = metadata.getComment();
+      fields[5] = metadata.getGenre();
+      fields[6] = metadata.getEncoder();
+      fields[7] = metadata.getStation();
+      fields[8] = metadata.getUrl();
+      fields[9] = Integer.toString(metadata.getDuration());
+      fields[10] = Integer.toString(tags.size());
+
+      int i = 11;
+      for (Map.Entry<String, String> tag : tags.entrySet()) {
+        fields[i++] = tag.getKey();
+        fields[i++] = tag.getValue();
+      }
+
+      this.payloadLen = payloadLen;
+
+      hash = 31 * Arrays.hashCode(fields) + payloadLen;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+
+      Key key = (Key) o;
+      return hash == key.hash && payloadLen == key.payloadLen && Arrays.equals(fields, key.fields);
+    }
+  }
+
+  private final long maxBytes;
+
+  private final LinkedHashMap<Key, byte[]> entries = new LinkedHashMap<Key, byte[]>(16, 0.75f,
+      true);
+
+  private long bytes = 0;
+  private long hits = 0;
+  private long misses = 0;
+
+  public MetadataFrameCache() {
+    this(DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * Instantiates a cache.
+   *
+   * @param maxBytes, the maximum size of the messages held
+   */
+  public MetadataFrameCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Gets the messages encoded for the given metadata.
+   *
+   * @param metadata, the metadata
+   * @param payloadLen, the max payload of the messages
+   * @return the encoded messages, null if not cached
+   */
+  public synchronized byte[] get(Metadata metadata, int payloadLen) {
+    byte[] frames = entries.get(new Key(metadata, payloadLen));
+    if (frames != null) {
+      hits++;
+    } else {
+      misses++;
+    }
+
+    return frames;
+  }
+
+  /**
+   * Adds the messages encoded for the given metadata, evicting the least recently used ones if
+   * needed. The messages must not be modified afterwards.
+   *
+   * @param metadata, the metadata
+   * @param payloadLen, the max payload of the messages
+   * @param frames, the encoded messages
+   */
+  public synchronized void put(Metadata metadata, int payloadLen, byte[] frames) {
+    if (frames.length > maxBytes) {
+      return;
+    }
+
+    byte[] previous = entries.put(new Key(metadata, payloadLen), frames);
+    if (previous != null) {
+      bytes -= previous.length;
+    }
+    bytes += frames.length;
+
+    Iterator<byte[]> it = entries.values().iterator();
+    while (bytes > maxBytes && it.hasNext()) {
+      bytes -= it.next().length;
+      it.remove();
+    }
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+    bytes = 0;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Gets the size of the messages held.
+   *
+   * @return the size in bytes
+   */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  public synchronized int getCount() {
+    return entries.size();
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer.ultravox2;
+
+import java.util.Map;
+
+import com.supernovapps.audio.jstreamsourcer.Metadata;
+import com.supernovapps.audio.jstreamsourcer.Sourcer;
+
+/**
+ * Writes the Ultravox XML metadata document straight into UTF-8 bytes:
+ *
+ * <?xml version="1.0" encoding="UTF-8" ?><metadata><TIT2>title</TIT2>...</metadata>
+ *
+ * The empty fields are left out, the text is escaped and the characters not allowed in XML are
+ * dropped. The buffer is reused from one document to the next.
+ */
+public class MetadataXmlEncoder {
+  private static final byte[] PROLOG = getAscii("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>");
+
+  private byte[] buffer;
+  private int size = 0;
+
+  public MetadataXmlEncoder() {
+    this(512);
+  }
+
+  public MetadataXmlEncoder(int capacity) {
+    buffer = new byte[capacity];
+  }
+
+  /**
+   * Encodes a metadata document in place of the previous one.
+   *
+   * @param metadata, the metadata
+   * @return this encoder, holding the document
+   */
+  public MetadataXmlEncoder encode(Metadata metadata) {
+    size = 0;
+
+    append(PROLOG);
+    appendAscii("<metadata>");
+
+    appendElement("TIT2", metadata.getSong());
+    appendElement("TALB", metadata.getAlbum());
+    appendElement("TPE1", metadata.getArtist());
+    appendElement("TYER", metadata.getYear());
+    appendElement("COMM", metadata.getComment());
+    appendElement("TCON", metadata.getGenre());
+    appendElement("TENC",
+        metadata.getEncoder() != null ? metadata.getEncoder() : Sourcer.USER_AGENT);
+    appendElement("TRSN", metadata.getStation());
+    appendElement("WORS", metadata.getUrl());
+
+    for (Map.Entry<String, String> tag : metadata.getTags().entrySet()) {
+      if (isFrameId(tag.getKey())) {
+        appendElement(tag.getKey(), tag.getValue());
+      }
+    }
+
+    appendAscii("</metadata>");
+
+    return this;
+  }
+
+  /**
+   * Gets the buffer holding the document, valid until the next encode.
+   *
+   * @return the buffer
+   */
+  public byte[] getBuffer() {
+    return buffer;
+  }
+
+  /**
+   * Gets the size of the document.
+   *
+   * @return the size in bytes
+   */
+  public int size() {
+    return size;
+  }
+
+  public byte[] toByteArray() {
+    byte[] data = new byte[size];
+    System.arraycopy(buffer, 0, data, 0, size);
+    return data;
+  }
+
+  private static boolean isFrameId(String name) {
+    if (name.length() != 4) {
+      return false;
+    }
+
+    for (int i = 0; i < 4; i++) {
+      char c = name.charAt(i);
+      if (!(c >= 'A' && c <= 'Z') && !(c >= '0' && c <= '9')) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private void appendElement(String name, String text) {
+    if (text == null || text.length() == 0) {
+      return;
+    }
+
+    ensure(name.length() * 2 + 5);
+    buffer[size++] = '<';
+    appendAscii(name);
+    buffer[size++] = '>';
+
+    appendText(text);
+
+    ensure(name.length() + 3);
+    buffer[size++] = '<';
+    buffer[size++] = '/';
+    appendAscii(name);
+    buffer[size++] = '>';
+  }
+
+  private void appendText(String text) {
+    int len = text.length();
+    for (int i = 0; i < len; i++) {
+      int c = text.charAt(i);
+
+      if (Character.isHighSurrogate((char) c) && i + 1 < len
+          && Character.isLowSurrogate(text.charAt(i + 1))) {
+        c = Character.toCodePoint((char) c, text.charAt(++i));
+      } else if (Character.isSurrogate((char) c)) {
+        continue;
+      }
+
+      switch (c) {
+        case '&':
+          appendAscii("&amp;");
+          break;
+        case '<':
+          appendAscii("&lt;");
+          break;
+        case '>':
+          appendAscii("&gt;");
+          break;
+        case '"':
+          appendAscii("&quot;");
+          break;
+        case '\'':
+          appendAscii("&apos;");
+          break;
+        default:
+          appendChar(c);
+          break;
+      }
+    }
+  }
+
+  private void appendChar(int c) {
+    ensure(4);
+    if (c < 0x80) {
+      if (c < 0x20 && c != '\t' && c != '\n' && c != '\r') {
+        return;
+      }
+      buffer[size++] = (byte) c;
+    } else if (c < 0x800) {
+      buffer[size++] = (byte) (0xC0 | c >> 6);
+      buffer[size++] = (byte) (0x80 | c & 0x3F);
+    } else if (c < 0x10000) {
+      if (c == 0xFFFE || c == 0xFFFF) {
+        return;
+      }
+      buffer[size++] = (byte) (0xE0 | c >> 12);
+      buffer[size++] = (byte) (0x80 | c >> 6 & 0x3F);
+      buffer[size++] = (byte) (0x80 | c & 0x3F);
+    } else {
+      buffer[size++] = (byte) (0xF0 | c >> 18);
+      buffer[size++] = (byte) (0x80 | c >> 12 & 0x3F);
+      buffer[size++] = (byte) (0x80 | c >> 6 & 0x3F);
+      buffer[size++] = (byte) (0x80 | c & 0x3F);
+    }
+  }
+
+  private void appendAscii(String text) {
+    int len = text.length();
+    ensure(len);
+    for (int i = 0; i < len; i++) {
+      buffer[size++] = (byte) text.charAt(i);
+    }
+  }
+
+  private void append(byte[] data) {
+    ensure(data.length);
+    System.arraycopy(data, 0, buffer, size, data.length);
+    size += data.length;
+  }
+
+  private void ensure(int len) {
+    if (size + len > buffer.length) {
+      byte[] grown = new byte[Math.max(buffer.length * 2, size + len)];
+      System.arraycopy(buffer, 0, grown, 0, size);
+      buffer = grown;
+    }
+  }
+
+  private static byte[] getAscii(String text) {
+    byte[] data = new byte[text.length()];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) text.charAt(i);
+    }
+    return data;
+  }
+}
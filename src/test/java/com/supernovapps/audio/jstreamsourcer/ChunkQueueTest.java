@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.supernovapps.audio.jstreamsourcer.ChunkQueue.Chunk;
+
+public class ChunkQueueTest {
+
+  @Test
+  public void testOfferPoll() {
+    ChunkQueue queue = new ChunkQueue(2, OverflowPolicy.BLOCK);
+
+    Assert.assertTrue(queue.offer(new byte[] {1, 2, 3}, 1, 2));
+    Assert.assertEquals(1, queue.size());
+    Assert.assertEquals(2, queue.getQueuedBytes());
+
+    Chunk chunk = queue.poll(null);
+    Assert.assertEquals(2, chunk.size);
+    Assert.assertEquals(2, chunk.data[0]);
+    Assert.assertEquals(3, chunk.data[1]);
+
+    Assert.assertNull(queue.poll(chunk));
+    Assert.assertEquals(0, queue.getQueuedBytes());
+  }
+
+  @Test
+  public void testDropNewest() {
+    ChunkQueue queue = new ChunkQueue(2, OverflowPolicy.DROP_NEWEST);
+
+    Assert.assertTrue(queue.offer(new byte[] {1}, 0, 1));
+    Assert.assertTrue(queue.offer(new byte[] {2}, 0, 1));
+    Assert.assertFalse(queue.offer(new byte[] {3}, 0, 1));
+
+    Assert.assertEquals(2, queue.size());
+    Assert.assertEquals(1, queue.getDropped());
+    Assert.assertEquals(1, queue.poll(null).data[0]);
+    Assert.assertEquals(2, queue.poll(null).data[0]);
+  }
+
+  @Test
+  public void testDropOldest() {
+    ChunkQueue queue = new ChunkQueue(2, OverflowPolicy.DROP_OLDEST);
+
+    Assert.assertTrue(queue.offer(new byte[] {1}, 0, 1));
+    Assert.assertTrue(queue.offer(new byte[] {2}, 0, 1));
+    Assert.assertTrue(queue.offer(new byte[] {3}, 0, 1));
+
+    Assert.assertEquals(2, queue.size());
+    Assert.assertEquals(1, queue.getDropped());
+    Assert.assertEquals(2, queue.poll(null).data[0]);
+    Assert.assertEquals(3, queue.poll(null).data[0]);
+  }
+
+  @Test
+  public void testCloseWakesConsumer() throws InterruptedException {
+    final ChunkQueue queue = new ChunkQueue(2, OverflowPolicy.BLOCK);
+
+    Thread closer = new Thread() {
+      @Override
+      public void run() {
+        queue.close();
+      }
+    };
+    closer.start();
+
+    Assert.assertNull(queue.take(null));
+    Assert.assertFalse(queue.offer(new byte[] {1}, 0, 1));
+  }
+}
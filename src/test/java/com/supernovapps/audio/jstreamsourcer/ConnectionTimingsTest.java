@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConnectionTimingsTest {
+
+  @Test
+  public void testHistogramBuckets() {
+    Assert.assertEquals(0, LatencyHistogram.getBucket(0));
+    Assert.assertEquals(0, LatencyHistogram.getBucket(1000));
+    Assert.assertEquals(1, LatencyHistogram.getBucket(1001));
+    Assert.assertEquals(1, LatencyHistogram.getBucket(2000));
+    Assert.assertEquals(10, LatencyHistogram.getBucket(1000000));
+    Assert.assertEquals(31, LatencyHistogram.getBucket(Long.MAX_VALUE));
+
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i * 1000000L);
+    }
+
+    Assert.assertEquals(100, histogram.getCount());
+    Assert.assertEquals(5050000000L, histogram.getSumNanos());
+    Assert.assertEquals(100000000L, histogram.getMaxNanos());
+    // 50 ms falls in the bucket up to 65.536 ms
+    Assert.assertEquals(65536000L, histogram.getPercentileNanos(50));
+    Assert.assertEquals(100000000L, histogram.getPercentileNanos(100));
+  }
+
+  @Test
+  public void testHistogramText() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(1500000L);
+
+    StringBuilder out = new StringBuilder();
+    histogram.writeText(out, "latency", "step=\"connect\"");
+    String text = out.toString();
+
+    Assert.assertTrue(text.contains("latency_bucket{step=\"connect\",le=\"0.001024\"} 0\n"));
+    Assert.assertTrue(text.contains("latency_bucket{step=\"connect\",le=\"0.002048\"} 1\n"));
+    Assert.assertTrue(text.contains("latency_bucket{step=\"connect\",le=\"+Inf\"} 1\n"));
+    Assert.assertTrue(text.contains("latency_sum{step=\"connect\"} 0.001500\n"));
+    Assert.assertTrue(text.contains("latency_count{step=\"connect\"} 1\n"));
+  }
+
+  @Test
+  public void testTimings() {
+    ConnectionTimings timings = new ConnectionTimings();
+
+    long begin = timings.beginAttempt();
+    timings.record(ConnectionTimings.CONNECT, begin);
+    timings.failed();
+
+    begin = timings.beginAttempt();
+    timings.record(ConnectionTimings.CONNECT, begin);
+    timings.connected();
+    timings.bytesSent();
+    timings.bytesSent();
+
+    Assert.assertEquals(2, timings.getAttempts());
+    Assert.assertEquals(1, timings.getFailures());
+    Assert.assertEquals(2, timings.get(ConnectionTimings.CONNECT).getCount());
+    Assert.assertEquals(1, timings.get(ConnectionTimings.HANDSHAKE).getCount());
+    Assert.assertEquals(1, timings.get(ConnectionTimings.FIRST_BYTE).getCount());
+
+    StringBuilder out = new StringBuilder();
+    timings.writeText(out, "server=\"relay1\"");
+    Assert.assertTrue(out.toString().contains(
+        "jstreamsourcer_connection_attempts_total{server=\"relay1\"} 2\n"));
+    Assert.assertTrue(out.toString().contains(
+        "jstreamsourcer_connection_step_seconds_count{server=\"relay1\",step=\"connect\"} 2\n"));
+  }
+
+  @Test
+  public void testExpositionOfSeveralSourcers() {
+    ConnectionTimings primary = new ConnectionTimings();
+    long begin = primary.beginAttempt();
+    primary.record(ConnectionTimings.CONNECT, begin);
+    primary.connected();
+
+    ConnectionTimings backup = new ConnectionTimings();
+    begin = backup.beginAttempt();
+    backup.record(ConnectionTimings.CONNECT, begin);
+    backup.failed();
+
+    Map<String, ConnectionTimings> timings = new LinkedHashMap<String, ConnectionTimings>();
+    timings.put("server=\"primary\"", primary);
+    timings.put("server=\"backup\"", backup);
+
+    StringBuilder out = new StringBuilder();
+    ConnectionTimings.writeText(out, timings);
+    String text = out.toString();
+
+    // each family is declared once and its samples follow its TYPE line
+    Set<String> families = new HashSet<String>();
+    String family = null;
+    for (String line : text.split("\n")) {
+      if (line.startsWith("# TYPE ")) {
+        family = line.split(" ")[2];
+        Assert.assertTrue(families.add(family));
+      } else {
+        Assert.assertNotNull(family);
+        Assert.assertTrue(line, line.startsWith(family));
+      }
+    }
+    Assert.assertEquals(3, families.size());
+
+    Assert.assertTrue(text.contains("jstreamsourcer_connection_step_seconds_count"
+        + "{server=\"primary\",step=\"connect\"} 1\n"));
+    Assert.assertTrue(text.contains("jstreamsourcer_connection_step_seconds_count"
+        + "{server=\"backup\",step=\"connect\"} 1\n"));
+    Assert.assertTrue(text.contains(
+        "jstreamsourcer_connection_failures_total{server=\"primary\"} 0\n"));
+    Assert.assertTrue(text.contains(
+        "jstreamsourcer_connection_failures_total{server=\"backup\"} 1\n"));
+  }
+}
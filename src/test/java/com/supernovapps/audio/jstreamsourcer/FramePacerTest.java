@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FramePacerTest {
+
+  /*
+   * MPEG 1 layer III, 128 kbps, 44100 Hz, 417 bytes or 418 bytes when padded
+   */
+  private static byte[] getMp3Frame(boolean padding) {
+    byte[] frame = new byte[padding ? 418 : 417];
+    frame[0] = (byte) 0xFF;
+    frame[1] = (byte) 0xFB;
+    frame[2] = (byte) (padding ? 0x92 : 0x90);
+    frame[3] = 0x00;
+
+    return frame;
+  }
+
+  private static byte[] getStream(int frames) {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+    // ID3v2 tag with 20 bytes of content, containing a fake sync word
+    byte[] tag = new byte[30];
+    tag[0] = 'I';
+    tag[1] = 'D';
+    tag[2] = '3';
+    tag[3] = 4;
+    tag[9] = 20;
+    tag[12] = (byte) 0xFF;
+    tag[13] = (byte) 0xFB;
+    stream.write(tag, 0, tag.length);
+
+    for (int i = 0; i < frames; i++) {
+      byte[] frame = getMp3Frame(i % 3 == 0);
+      stream.write(frame, 0, frame.length);
+    }
+
+    return stream.toByteArray();
+  }
+
+  private static long getExpectedNanos(int frames) {
+    return frames * 1152L * 1000000000L / 44100;
+  }
+
+  @Test
+  public void testWholeStream() {
+    byte[] stream = getStream(100);
+
+    FramePacer pacer = FramePacer.forMp3(0);
+    Assert.assertEquals(getExpectedNanos(100), pacer.getDurationNanos(stream, 0, stream.length));
+  }
+
+  @Test
+  public void testSplitStream() {
+    byte[] stream = getStream(100);
+
+    FramePacer pacer = FramePacer.forMp3(0);
+
+    long duration = 0;
+    for (int offset = 0; offset < stream.length; offset += 7) {
+      duration += pacer.getDurationNanos(stream, offset, Math.min(7, stream.length - offset));
+    }
+
+    Assert.assertEquals(getExpectedNanos(100), duration);
+  }
+
+  @Test
+  public void testResync() {
+    byte[] frame = getMp3Frame(false);
+
+    FramePacer pacer = FramePacer.forMp3(0);
+
+    long duration = pacer.getDurationNanos(new byte[] {0x01, (byte) 0xFF, 0x02}, 0, 3);
+    duration += pacer.getDurationNanos(frame, 0, frame.length);
+    duration += pacer.getDurationNanos(frame, 0, frame.length);
+
+    Assert.assertEquals(getExpectedNanos(2), duration);
+  }
+
+  @Test
+  public void testSchedule() {
+    byte[] stream = getStream(10);
+
+    FramePacer pacer = FramePacer.forMp3(0);
+
+    long wait = pacer.schedule(pacer.getDurationNanos(stream, 0, stream.length), 0);
+    Assert.assertEquals(getExpectedNanos(10), wait);
+  }
+}
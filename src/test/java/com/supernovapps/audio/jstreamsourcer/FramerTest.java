@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.supernovapps.audio.jstreamsourcer.audio.AdtsFrameFormat;
+import com.supernovapps.audio.jstreamsourcer.audio.Mp3FrameFormat;
+
+public class FramerTest {
+
+  /*
+   * Keeps the size of the data given to writeData
+   */
+  private static class RecordingSourcer extends Sourcer {
+    List<Integer> writes = new ArrayList<Integer>();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int maxRun = Integer.MAX_VALUE;
+
+    public RecordingSourcer() {
+      super(128, 0);
+      setPacer(null);
+      started = true;
+    }
+
+    @Override
+    protected void writeData(byte[] data, int offset, int size) {
+      writes.add(size);
+      out.write(data, offset, size);
+    }
+
+    @Override
+    protected int getMaxFrameRun() {
+      return maxRun;
+    }
+
+    @Override
+    public boolean start() {
+      return true;
+    }
+
+    @Override
+    public boolean isStarted() {
+      return started;
+    }
+
+    @Override
+    public boolean stop() {
+      return true;
+    }
+
+    @Override
+    protected boolean sendMetadata(Metadata metadata) {
+      return true;
+    }
+  }
+
+  private RecordingSourcer sourcer;
+
+  @Before
+  public void setUp() {
+    sourcer = new RecordingSourcer();
+  }
+
+  /*
+   * MPEG 1 layer III, 128 kbps, 44100 Hz, 417 bytes
+   */
+  private static byte[] getMp3Frame() {
+    byte[] frame = new byte[417];
+    frame[0] = (byte) 0xFF;
+    frame[1] = (byte) 0xFB;
+    frame[2] = (byte) 0x90;
+
+    return frame;
+  }
+
+  /*
+   * AAC LC, 44100 Hz, stereo, without CRC
+   */
+  private static byte[] getAdtsFrame(int length) {
+    byte[] frame = new byte[length];
+    frame[0] = (byte) 0xFF;
+    frame[1] = (byte) 0xF1;
+    frame[2] = (byte) 0x50;
+    frame[3] = (byte) (0x80 | (length >> 11) & 0x03);
+    frame[4] = (byte) (length >> 3);
+    frame[5] = (byte) ((length & 0x07) << 5 | 0x1F);
+    frame[6] = (byte) 0xFC;
+
+    return frame;
+  }
+
+  @Test
+  public void testWholeFrames() {
+    sourcer.setFrameFormat(new Mp3FrameFormat());
+
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    for (int i = 0; i < 10; i++) {
+      byte[] frame = getMp3Frame();
+      stream.write(frame, 0, frame.length);
+    }
+    byte[] data = stream.toByteArray();
+
+    for (int offset = 0; offset < data.length; offset += 1000) {
+      int size = Math.min(1000, data.length - offset);
+      byte[] buffer = new byte[size];
+      System.arraycopy(data, offset, buffer, 0, size);
+
+      sourcer.write(buffer, size);
+    }
+
+    Assert.assertEquals(data.length, sourcer.out.size());
+    for (int size : sourcer.writes) {
+      Assert.assertEquals(0, size % 417);
+    }
+  }
+
+  @Test
+  public void testGarbageAndTagsDropped() {
+    sourcer.setFrameFormat(new Mp3FrameFormat());
+
+    byte[] tag = new byte[30];
+    tag[0] = 'I';
+    tag[1] = 'D';
+    tag[2] = '3';
+    tag[3] = 4;
+    tag[9] = 20;
+
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    stream.write(new byte[] {1, 2, 3}, 0, 3);
+    stream.write(tag, 0, tag.length);
+    byte[] frame = getMp3Frame();
+    stream.write(frame, 0, frame.length);
+    stream.write(frame, 0, frame.length);
+    stream.write(frame, 0, 100);
+    byte[] data = stream.toByteArray();
+
+    sourcer.write(data, data.length);
+
+    Assert.assertEquals(2 * 417, sourcer.out.size());
+    Assert.assertEquals((byte) 0xFF, sourcer.out.toByteArray()[0]);
+  }
+
+  @Test
+  public void testMaxRun() {
+    sourcer.setFrameFormat(new Mp3FrameFormat());
+    sourcer.maxRun = 1000;
+
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    for (int i = 0; i < 5; i++) {
+      byte[] frame = getMp3Frame();
+      stream.write(frame, 0, frame.length);
+    }
+    byte[] data = stream.toByteArray();
+
+    sourcer.write(data, data.length);
+
+    Assert.assertEquals(3, sourcer.writes.size());
+    Assert.assertEquals(834, (int) sourcer.writes.get(0));
+    Assert.assertEquals(834, (int) sourcer.writes.get(1));
+    Assert.assertEquals(417, (int) sourcer.writes.get(2));
+  }
+
+  @Test
+  public void testAdts() {
+    AdtsFrameFormat format = new AdtsFrameFormat();
+    sourcer.setFrameFormat(format);
+
+    byte[] frame = getAdtsFrame(371);
+    Assert.assertEquals(371, format.getFrameLength(frame, 0));
+    Assert.assertEquals(1024, format.getSamples(frame, 0));
+    Assert.assertEquals(44100, format.getSampleRate(frame, 0));
+
+    sourcer.write(frame, 200);
+    Assert.assertEquals(0, sourcer.out.size());
+
+    byte[] rest = new byte[171];
+    System.arraycopy(frame, 200, rest, 0, rest.length);
+    sourcer.write(rest, rest.length);
+    Assert.assertEquals(371, sourcer.out.size());
+  }
+}
@@ -16,18 +16,32 @@
 
 package com.supernovapps.audio.jstreamsourcer;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Future;
 
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
 import org.apache.http.NameValuePair;
+import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.easymock.Capture;
+import org.easymock.CaptureType;
 import org.easymock.EasyMock;
 import org.junit.After;
 import org.junit.Assert;
@@ -240,6 +254,279 @@ public class IcecastTest {
     Assert.assertEquals("album song artist", paramsMap.get("song"));
   }
 
+  @Test
+  public void testUpdateMetadataClient() throws IOException {
+    Socket sockMock = EasyMock.createNiceMock(Socket.class);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayInputStream in = new ByteArrayInputStream(new String("HTTP OK").getBytes());
+
+    EasyMock.expect(sockMock.getOutputStream()).andReturn(out);
+    EasyMock.expect(sockMock.getInputStream()).andReturn(in);
+    EasyMock.replay(sockMock);
+
+    final boolean[] closed = new boolean[1];
+    ByteArrayInputStream body = new ByteArrayInputStream(new String("OK").getBytes()) {
+      @Override
+      public void close() {
+        closed[0] = true;
+      }
+    };
+    HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+    response.setEntity(new InputStreamEntity(body, 2));
+
+    HttpClient clientMock = EasyMock.createMock(HttpClient.class);
+    EasyMock.expect(clientMock.execute(EasyMock.anyObject(HttpUriRequest.class))).andReturn(
+        response);
+    EasyMock.replay(clientMock);
+
+    icecast.setHttpClient(clientMock);
+    icecast.start(sockMock);
+    icecast.updateMetadata("song", "artist", "album");
+
+    EasyMock.verify(clientMock);
+
+    // the response has been consumed to release the connection
+    Assert.assertTrue(closed[0]);
+  }
+
+  @Test
+  public void testUpdateMetadataAsync() throws Exception {
+    Socket sockMock = EasyMock.createNiceMock(Socket.class);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayInputStream in = new ByteArrayInputStream(new String("HTTP OK").getBytes());
+
+    EasyMock.expect(sockMock.getOutputStream()).andReturn(out);
+    EasyMock.expect(sockMock.getInputStream()).andReturn(in);
+    EasyMock.replay(sockMock);
+
+    HttpClient clientMock = EasyMock.createMock(HttpClient.class);
+    EasyMock.expect(clientMock.execute(EasyMock.anyObject(HttpUriRequest.class))).andReturn(
+        new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK"));
+    EasyMock.expect(clientMock.execute(EasyMock.anyObject(HttpUriRequest.class))).andReturn(
+        new BasicHttpResponse(HttpVersion.HTTP_1_1, 401, "Unauthorized"));
+    EasyMock.replay(clientMock);
+
+    icecast.setHttpClient(clientMock);
+    icecast.start(sockMock);
+
+    Assert.assertTrue(icecast.updateMetadataAsync("song", "artist", "album").get());
+    Assert.assertFalse(icecast.updateMetadataAsync("song", "artist", "album").get());
+
+    EasyMock.verify(clientMock);
+  }
+
+  @Test
+  public void testUpdateMetadataCoalescing() throws Exception {
+    Socket sockMock = EasyMock.createNiceMock(Socket.class);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayInputStream in = new ByteArrayInputStream(new String("HTTP OK").getBytes());
+
+    EasyMock.expect(sockMock.getOutputStream()).andReturn(out);
+    EasyMock.expect(sockMock.getInputStream()).andReturn(in);
+    EasyMock.replay(sockMock);
+
+    Capture<HttpUriRequest> requests = new Capture<HttpUriRequest>(CaptureType.ALL);
+
+    HttpClient clientMock = EasyMock.createMock(HttpClient.class);
+    EasyMock.expect(clientMock.execute(EasyMock.capture(requests)))
+        .andReturn(new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK")).times(2);
+    EasyMock.replay(clientMock);
+
+    icecast.setHttpClient(clientMock);
+    icecast.setMetadataInterval(200);
+    icecast.start(sockMock);
+
+    List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+    for (int i = 0; i < 5; i++) {
+      results.add(icecast.updateMetadataAsync("song" + i, "artist", "album"));
+    }
+
+    Assert.assertTrue(results.get(0).get());
+    Assert.assertTrue(results.get(4).get());
+    for (int i = 1; i < 4; i++) {
+      Assert.assertTrue(results.get(i).isCancelled());
+    }
+    Assert.assertEquals(3, icecast.getDroppedMetadataUpdates());
+
+    EasyMock.verify(clientMock);
+    Assert.assertEquals("album song4 artist", getParams(requests.getValues().get(1)).get("song"));
+  }
+
+  @Test
+  public void testAsyncWrite() throws IOException, InterruptedException {
+    Socket sockMock = EasyMock.createNiceMock(Socket.class);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayInputStream in = new ByteArrayInputStream(new String("HTTP OK").getBytes());
+
+    EasyMock.expect(sockMock.getOutputStream()).andReturn(out);
+    EasyMock.expect(sockMock.getInputStream()).andReturn(in);
+    EasyMock.replay(sockMock);
+
+    icecast.enableAsyncWrite(4, OverflowPolicy.BLOCK);
+    icecast.start(sockMock);
+    out.reset();
+
+    byte[] data = "0123456789".getBytes();
+    for (int i = 0; i < 10; i++) {
+      icecast.write(data, data.length);
+    }
+
+    for (int i = 0; i < 100 && out.size() < 100; i++) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(100, out.size());
+    Assert.assertEquals(0, icecast.getQueueDepth());
+    Assert.assertEquals(0, icecast.getDroppedBuffers());
+
+    icecast.disableAsyncWrite();
+  }
+
+  @Test
+  public void testDisableAsyncWriteWaitsForWriter() throws IOException, InterruptedException {
+    Socket sockMock = EasyMock.createNiceMock(Socket.class);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayInputStream in = new ByteArrayInputStream(new String("HTTP OK").getBytes());
+
+    EasyMock.expect(sockMock.getOutputStream()).andReturn(out);
+    EasyMock.expect(sockMock.getInputStream()).andReturn(in);
+    EasyMock.replay(sockMock);
+
+    icecast.setPacer(new Pacer() {
+      @Override
+      public long getWaitNanos(byte[] data, int offset, int size) {
+        return 200000000L;
+      }
+
+      @Override
+      public void reset() {}
+    });
+
+    icecast.enableAsyncWrite(4, OverflowPolicy.BLOCK);
+    icecast.start(sockMock);
+    out.reset();
+
+    byte[] data = "0123456789".getBytes();
+    icecast.write(data, data.length);
+    for (int i = 0; i < 100 && icecast.getQueueDepth() > 0; i++) {
+      Thread.sleep(1);
+    }
+
+    // the buffer being paced by the I/O thread is sent before going back to synchronous writes
+    icecast.disableAsyncWrite();
+    Assert.assertEquals(10, out.size());
+
+    icecast.setPacer(null);
+    icecast.write(data, data.length);
+    Assert.assertEquals(20, out.size());
+  }
+
+  @Test
+  public void testChannelWrite() throws IOException, InterruptedException {
+    final ServerSocket server = new ServerSocket(0);
+    final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+    Thread serverThread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Socket client = server.accept();
+          BufferedReader reader =
+              new BufferedReader(new InputStreamReader(client.getInputStream()));
+
+          String line;
+          while ((line = reader.readLine()) != null && line.length() > 0) {}
+
+          client.getOutputStream().write("HTTP/1.0 200 OK\r\n\r\n".getBytes());
+
+          int c;
+          while ((c = reader.read()) != -1) {
+            received.write(c);
+          }
+          client.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    };
+    serverThread.start();
+
+    icecast.setPort(server.getLocalPort());
+    Assert.assertTrue(icecast.start(SocketChannel.open()));
+    Assert.assertTrue(icecast.getTransport() instanceof ChannelTransport);
+
+    byte[] data = "0123456789".getBytes();
+    icecast.write(data, data.length);
+    icecast.stop();
+
+    serverThread.join(5000);
+    server.close();
+
+    Assert.assertEquals("0123456789", new String(received.toByteArray()));
+  }
+
+  @Test
+  public void testOggMode() throws IOException {
+    icecast.setOggMode(true);
+    Assert.assertEquals("audio/ogg", icecast.getStreamInfo(Sourcer.CONTENT_TYPE));
+    Assert.assertTrue(icecast.getPacer() instanceof OggPacer);
+
+    Socket sockMock = EasyMock.createNiceMock(Socket.class);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayInputStream in = new ByteArrayInputStream(new String("HTTP OK").getBytes());
+
+    EasyMock.expect(sockMock.getOutputStream()).andReturn(out);
+    EasyMock.expect(sockMock.getInputStream()).andReturn(in);
+    EasyMock.replay(sockMock);
+
+    icecast.start(sockMock);
+    out.reset();
+
+    byte[] headers = OggPacerTest.getHeaders();
+    byte[] pages = OggPacerTest.getStream(1272, 10);
+
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    stream.write(headers, 0, headers.length);
+    stream.write(pages, 0, pages.length);
+    // partial page, kept until the rest of it is written
+    stream.write(pages, 0, 100);
+    byte[] data = stream.toByteArray();
+
+    for (int offset = 0; offset < data.length; offset += 1000) {
+      byte[] chunk = new byte[Math.min(1000, data.length - offset)];
+      System.arraycopy(data, offset, chunk, 0, chunk.length);
+      icecast.write(chunk, chunk.length);
+    }
+
+    Assert.assertArrayEquals(Arrays.copyOf(data, data.length - 100), out.toByteArray());
+    icecast.stop();
+
+    // the header pages are sent again right after the handshake
+    sockMock = EasyMock.createNiceMock(Socket.class);
+
+    out = new ByteArrayOutputStream();
+    in = new ByteArrayInputStream(new String("HTTP OK").getBytes());
+
+    EasyMock.expect(sockMock.getOutputStream()).andReturn(out);
+    EasyMock.expect(sockMock.getInputStream()).andReturn(in);
+    EasyMock.replay(sockMock);
+
+    Assert.assertTrue(icecast.start(sockMock));
+
+    byte[] sent = out.toByteArray();
+    byte[] tail = Arrays.copyOfRange(sent, sent.length - headers.length, sent.length);
+    Assert.assertArrayEquals(headers, tail);
+
+    icecast.setOggMode(false);
+    Assert.assertEquals("audio/mpeg", icecast.getStreamInfo(Sourcer.CONTENT_TYPE));
+    Assert.assertTrue(icecast.getPacer() instanceof TokenBucketPacer);
+  }
+
   private HashMap<String, String> getParams(HttpUriRequest request) throws URISyntaxException {
     List<NameValuePair> params =
         URLEncodedUtils.parse(new URI(request.getURI().toASCIIString()), "UTF-8");
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.supernovapps.audio.jstreamsourcer.ultravox2.Message;
+import com.supernovapps.audio.jstreamsourcer.ultravox2.MessageDecoder;
+
+public class MessageDecoderTest {
+
+  private static byte[] getMessage(byte msgClass, short msgType, int payloadLen) {
+    byte[] payload = new byte[payloadLen];
+    for (int i = 0; i < payloadLen; i++) {
+      payload[i] = (byte) i;
+    }
+
+    byte[] buffer = new byte[payloadLen + Message.HEADER_SIZE + Message.TRAILER_SIZE];
+    Message.encode(msgClass, msgType, payload, 0, payloadLen, buffer, 0);
+    return buffer;
+  }
+
+  private static byte[] getStream() {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+    byte[] msg = getMessage(Message.CLASS_CACHEABLE_METADATA1,
+        Message.CACHEABLE_METADATA1_XML_SHOUCAST_METADATA, 300);
+    stream.write(msg, 0, msg.length);
+
+    // garbage, with a sync byte followed by a header too long
+    byte[] garbage = {1, 2, 0x5A, 0, 0x10, 0x00, (byte) 0xFF, (byte) 0xFF, 3};
+    stream.write(garbage, 0, garbage.length);
+
+    msg = getMessage(Message.CLASS_BROADCASTER, Message.BROADCAST_TERMINATE, 0);
+    stream.write(msg, 0, msg.length);
+
+    return stream.toByteArray();
+  }
+
+  private static void assertStream(Message first, Message second) {
+    Assert.assertEquals(Message.CLASS_CACHEABLE_METADATA1, first.msgClass);
+    Assert.assertEquals(Message.CACHEABLE_METADATA1_XML_SHOUCAST_METADATA, first.msgType);
+    Assert.assertEquals(300, first.payloadLen);
+    Assert.assertEquals((byte) 200, first.payload[200]);
+
+    Assert.assertEquals(Message.CLASS_BROADCASTER, second.msgClass);
+    Assert.assertEquals(Message.BROADCAST_TERMINATE, second.msgType);
+    Assert.assertEquals(0, second.payloadLen);
+  }
+
+  @Test
+  public void testUnsignedHeader() throws IOException {
+    Message msg = Message.decode(getMessage(Message.CLASS_CACHEABLE_BINARY_METADATA,
+        (short) (Message.BINARY_METADATA_PLAYING_ART | Message.BINARY_METADATA_PNG), 0x1FF));
+
+    Assert.assertEquals(Message.CLASS_CACHEABLE_BINARY_METADATA, msg.msgClass);
+    Assert.assertEquals(0x101, msg.msgType);
+    Assert.assertEquals(0x1FF, msg.payloadLen);
+  }
+
+  @Test
+  public void testByteByByte() {
+    byte[] stream = getStream();
+    MessageDecoder decoder = new MessageDecoder();
+
+    Message[] messages = new Message[2];
+    int count = 0;
+    for (int i = 0; i < stream.length; i++) {
+      Message msg = decoder.decode(ByteBuffer.wrap(stream, i, 1));
+      if (msg != null) {
+        messages[count++] = msg;
+      }
+    }
+
+    Assert.assertEquals(2, count);
+    assertStream(messages[0], messages[1]);
+    Assert.assertEquals(9, decoder.getSkippedBytes());
+  }
+
+  @Test
+  public void testChannel() throws IOException {
+    MessageDecoder decoder = new MessageDecoder();
+    ByteArrayInputStream in = new ByteArrayInputStream(getStream());
+
+    Message first = decoder.read(Channels.newChannel(in));
+    Message second = decoder.read(Channels.newChannel(in));
+    assertStream(first, second);
+  }
+
+  @Test
+  public void testShortReads() throws IOException {
+    // gives at most 5 bytes per read, as a slow link
+    InputStream in = new ByteArrayInputStream(getStream()) {
+      @Override
+      public synchronized int read(byte[] b, int off, int len) {
+        return super.read(b, off, Math.min(len, 5));
+      }
+    };
+
+    MessageDecoder decoder = new MessageDecoder();
+    assertStream(decoder.read(in), decoder.read(in));
+
+    in = new ByteArrayInputStream(getMessage(Message.CLASS_BROADCASTER,
+        Message.BROADCAST_STANDBY, 300)) {
+      @Override
+      public synchronized int read(byte[] b, int off, int len) {
+        return super.read(b, off, Math.min(len, 5));
+      }
+    };
+    Assert.assertEquals(300, Message.read(in).payloadLen);
+  }
+
+  @Test
+  public void testFalseSyncRescanned() {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+    // false sync byte, its length covering the next message and the start of the following one
+    byte[] corrupt = {0x5A, 0, 0x10, 0x00, 0x00, 0x0A};
+    stream.write(corrupt, 0, corrupt.length);
+
+    byte[] msg = getMessage(Message.CLASS_BROADCASTER, Message.BROADCAST_TERMINATE, 0);
+    stream.write(msg, 0, msg.length);
+
+    msg = getMessage(Message.CLASS_CACHEABLE_METADATA1,
+        Message.CACHEABLE_METADATA1_XML_SHOUCAST_METADATA, 300);
+    stream.write(msg, 0, msg.length);
+
+    byte[] data = stream.toByteArray();
+
+    // whole, then byte by byte so that the rejected message spans several calls
+    for (int step : new int[] {data.length, 1}) {
+      MessageDecoder decoder = new MessageDecoder();
+      List<Message> messages = new ArrayList<Message>();
+
+      for (int i = 0; i < data.length; i += step) {
+        ByteBuffer in = ByteBuffer.wrap(data, i, Math.min(step, data.length - i));
+        Message m;
+        while ((m = decoder.decode(in)) != null) {
+          messages.add(m);
+        }
+      }
+
+      Assert.assertEquals(2, messages.size());
+      Assert.assertEquals(Message.BROADCAST_TERMINATE, messages.get(0).msgType);
+      Assert.assertEquals(Message.CACHEABLE_METADATA1_XML_SHOUCAST_METADATA,
+          messages.get(1).msgType);
+      Assert.assertEquals(300, messages.get(1).payloadLen);
+      Assert.assertEquals(corrupt.length, decoder.getSkippedBytes());
+    }
+  }
+}
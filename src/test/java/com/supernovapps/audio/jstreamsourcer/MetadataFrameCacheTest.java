@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.supernovapps.audio.jstreamsourcer.ultravox2.MetadataFrameCache;
+
+public class MetadataFrameCacheTest {
+
+  @Test
+  public void testHitMiss() {
+    MetadataFrameCache cache = new MetadataFrameCache(1024);
+
+    byte[] frames = new byte[100];
+    Assert.assertNull(cache.get(new Metadata("jingle", "station", null), 16377));
+    cache.put(new Metadata("jingle", "station", null), 16377, frames);
+
+    Assert.assertSame(frames, cache.get(new Metadata("jingle", "station", null), 16377));
+    Assert.assertNull(cache.get(new Metadata("jingle", "station", null), 1024));
+
+    Metadata tagged = new Metadata("jingle", "station", null);
+    tagged.setTag("TCOP", "copyright");
+    Assert.assertNull(cache.get(tagged, 16377));
+
+    Assert.assertEquals(1, cache.getHits());
+    Assert.assertEquals(3, cache.getMisses());
+    Assert.assertEquals(100, cache.getBytes());
+  }
+
+  @Test
+  public void testEviction() {
+    MetadataFrameCache cache = new MetadataFrameCache(250);
+
+    cache.put(new Metadata("a", null, null), 16377, new byte[100]);
+    cache.put(new Metadata("b", null, null), 16377, new byte[100]);
+
+    // a becomes the most recently used
+    Assert.assertNotNull(cache.get(new Metadata("a", null, null), 16377));
+
+    cache.put(new Metadata("c", null, null), 16377, new byte[100]);
+
+    Assert.assertEquals(2, cache.getCount());
+    Assert.assertEquals(200, cache.getBytes());
+    Assert.assertNotNull(cache.get(new Metadata("a", null, null), 16377));
+    Assert.assertNull(cache.get(new Metadata("b", null, null), 16377));
+    Assert.assertNotNull(cache.get(new Metadata("c", null, null), 16377));
+
+    // too large to be cached
+    cache.put(new Metadata("d", null, null), 16377, new byte[300]);
+    Assert.assertNull(cache.get(new Metadata("d", null, null), 16377));
+    Assert.assertEquals(200, cache.getBytes());
+  }
+}
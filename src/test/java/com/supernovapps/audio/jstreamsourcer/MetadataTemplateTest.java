@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetadataTemplateTest {
+
+  private static Metadata getMetadata() {
+    Metadata metadata = new Metadata("song", "artist", "album");
+    metadata.setYear("1977");
+    metadata.setDuration(185);
+    metadata.setTag("label", "Label");
+
+    return metadata;
+  }
+
+  @Test
+  public void testRender() {
+    MetadataTemplate template = new MetadataTemplate(MetadataTemplate.DEFAULT_TEMPLATE);
+    Assert.assertEquals("album song artist", template.render(getMetadata()));
+
+    template = new MetadataTemplate("_artist_ - _song_ (_year_, _duration_) _label_");
+    Assert.assertEquals("artist - song (1977, 3:05) Label", template.render(getMetadata()));
+  }
+
+  @Test
+  public void testMissingFields() {
+    MetadataTemplate template = new MetadataTemplate("_song_ _year_ _unknown_");
+    Assert.assertEquals("song  ", template.render(new Metadata("song", null, null)));
+  }
+
+  @Test
+  public void testUnderscores() {
+    MetadataTemplate template = new MetadataTemplate("__song__ _ my_file _ _artist_");
+    Assert.assertEquals("_song_ _ my_file _ artist", template.render(getMetadata()));
+  }
+
+  @Test
+  public void testUrlEncoded() throws UnsupportedEncodingException {
+    Metadata metadata = new Metadata("Café & Co", "東京 🎵", "a+b=c");
+
+    MetadataTemplate template = new MetadataTemplate("_song_ / _artist_ ? _album_");
+
+    UrlEncodedBuffer buffer = new UrlEncodedBuffer(4);
+    template.render(metadata, buffer);
+
+    Assert.assertEquals(URLEncoder.encode(template.render(metadata), "UTF-8"), buffer.toString());
+  }
+}
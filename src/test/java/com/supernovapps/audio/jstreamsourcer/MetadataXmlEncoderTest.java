@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.io.ByteArrayInputStream;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import com.supernovapps.audio.jstreamsourcer.ultravox2.MetadataXmlEncoder;
+
+public class MetadataXmlEncoderTest {
+
+  private static Document parse(MetadataXmlEncoder encoder) throws Exception {
+    DocumentBuilder db = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+    return db.parse(new ByteArrayInputStream(encoder.getBuffer(), 0, encoder.size()));
+  }
+
+  private static String getText(Document doc, String name) {
+    Node node = doc.getElementsByTagName(name).item(0);
+    return node != null ? node.getTextContent() : null;
+  }
+
+  @Test
+  public void testEncode() throws Exception {
+    Metadata metadata = new Metadata("song", "artist", "album");
+    metadata.setYear("1977");
+    metadata.setGenre("Rock");
+    metadata.setUrl("http://radio.example.com/?a=1&b=2");
+    metadata.setTag("TCOP", "copyright");
+    metadata.setTag("label", "not a frame");
+
+    Document doc = parse(new MetadataXmlEncoder().encode(metadata));
+
+    Assert.assertEquals("metadata", doc.getDocumentElement().getNodeName());
+    Assert.assertEquals("song", getText(doc, "TIT2"));
+    Assert.assertEquals("artist", getText(doc, "TPE1"));
+    Assert.assertEquals("album", getText(doc, "TALB"));
+    Assert.assertEquals("1977", getText(doc, "TYER"));
+    Assert.assertEquals("Rock", getText(doc, "TCON"));
+    Assert.assertEquals(Sourcer.USER_AGENT, getText(doc, "TENC"));
+    Assert.assertEquals("http://radio.example.com/?a=1&b=2", getText(doc, "WORS"));
+    Assert.assertEquals("copyright", getText(doc, "TCOP"));
+    Assert.assertNull(getText(doc, "COMM"));
+    Assert.assertEquals(0, doc.getElementsByTagName("label").getLength());
+  }
+
+  @Test
+  public void testEscaping() throws Exception {
+    Metadata metadata = new Metadata("<Rock & \"Roll\">", "Beyoncé 東京 🎵", "bad\u0001\u0008chars");
+
+    MetadataXmlEncoder encoder = new MetadataXmlEncoder(16);
+    encoder.encode(new Metadata("previous", null, null));
+
+    Document doc = parse(encoder.encode(metadata));
+
+    Assert.assertEquals("<Rock & \"Roll\">", getText(doc, "TIT2"));
+    Assert.assertEquals("Beyoncé 東京 🎵", getText(doc, "TPE1"));
+    Assert.assertEquals("badchars", getText(doc, "TALB"));
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MultiSourcerTest {
+
+  /*
+   * Keeps the data written, optionally waiting for a latch before each write
+   */
+  private static class RecordingSourcer extends Sourcer {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    CountDownLatch gate = null;
+
+    public RecordingSourcer() {
+      super(128, 0);
+      setPacer(null);
+      started = true;
+    }
+
+    @Override
+    protected void writeData(byte[] data, int offset, int size) {
+      try {
+        if (gate != null) {
+          gate.await();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+
+      synchronized (out) {
+        out.write(data, offset, size);
+      }
+    }
+
+    int size() {
+      synchronized (out) {
+        return out.size();
+      }
+    }
+
+    @Override
+    public boolean start() {
+      return true;
+    }
+
+    @Override
+    public boolean isStarted() {
+      return started;
+    }
+
+    @Override
+    public boolean stop() {
+      return true;
+    }
+
+    @Override
+    protected boolean sendMetadata(Metadata metadata) {
+      return true;
+    }
+  }
+
+  private MultiSourcer multi;
+
+  @Before
+  public void setUp() {
+    multi = new MultiSourcer(4);
+  }
+
+  @After
+  public void tearDown() {
+    multi.shutdown();
+  }
+
+  private static void waitFor(RecordingSourcer sourcer, int size) throws InterruptedException {
+    for (int i = 0; i < 200 && sourcer.size() < size; i++) {
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void testAllSourcersFed() throws InterruptedException {
+    RecordingSourcer first = new RecordingSourcer();
+    RecordingSourcer second = new RecordingSourcer();
+    multi.addSourcer(first);
+    multi.addSourcer(second);
+    Assert.assertEquals(2, multi.getSourcers().size());
+
+    byte[] data = "0123456789".getBytes();
+    for (int i = 0; i < 10; i++) {
+      multi.write(data, data.length);
+      waitFor(first, (i + 1) * 10);
+      waitFor(second, (i + 1) * 10);
+    }
+
+    Assert.assertEquals(100, first.size());
+    Assert.assertEquals(100, second.size());
+    Assert.assertEquals(0, multi.getDroppedBuffers(first));
+    Assert.assertEquals(0, multi.getDroppedBuffers(second));
+  }
+
+  @Test
+  public void testSlowSourcerSkips() throws InterruptedException {
+    RecordingSourcer fast = new RecordingSourcer();
+    RecordingSourcer slow = new RecordingSourcer();
+    slow.gate = new CountDownLatch(1);
+    multi.addSourcer(fast);
+    multi.addSourcer(slow);
+
+    byte[] data = new byte[10];
+    for (int i = 0; i < 20; i++) {
+      data[0] = (byte) i;
+      multi.write(data, data.length);
+      waitFor(fast, (i + 1) * 10);
+
+      for (int j = 0; i == 0 && j < 200 && multi.getLag(slow) > 0; j++) {
+        Thread.sleep(10);
+      }
+    }
+
+    // the fast sourcer got everything while the slow one is stuck on its first buffer
+    Assert.assertEquals(200, fast.size());
+    Assert.assertEquals(0, slow.size());
+    Assert.assertEquals(4, multi.getLag(slow));
+    Assert.assertEquals(15, multi.getDroppedBuffers(slow));
+
+    slow.gate.countDown();
+    waitFor(slow, 50);
+
+    // the buffer in flight, then the last ones of the ring
+    byte[] received = slow.out.toByteArray();
+    Assert.assertEquals(50, received.length);
+    Assert.assertEquals(0, received[0]);
+    Assert.assertEquals(16, received[10]);
+    Assert.assertEquals(19, received[40]);
+  }
+
+  @Test
+  public void testRemoveSourcer() throws InterruptedException {
+    RecordingSourcer sourcer = new RecordingSourcer();
+    multi.addSourcer(sourcer);
+
+    byte[] data = "0123456789".getBytes();
+    multi.write(data, data.length);
+    waitFor(sourcer, 10);
+
+    multi.removeSourcer(sourcer);
+    Assert.assertTrue(multi.getSourcers().isEmpty());
+
+    multi.write(data, data.length);
+    TimeUnit.MILLISECONDS.sleep(50);
+    Assert.assertEquals(10, sourcer.size());
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OggPacerTest {
+
+  /*
+   * Ogg page with a single packet, 960 samples (20 ms) of Opus per audio page
+   */
+  static byte[] getPage(int headerType, long granule, byte[] packet) {
+    int segments = packet.length / 255 + 1;
+
+    byte[] page = new byte[27 + segments + packet.length];
+    page[0] = 'O';
+    page[1] = 'g';
+    page[2] = 'g';
+    page[3] = 'S';
+    page[5] = (byte) headerType;
+    for (int i = 0; i < 8; i++) {
+      page[6 + i] = (byte) (granule >> (8 * i));
+    }
+    page[14] = 0x2A;
+    page[26] = (byte) segments;
+    for (int i = 0; i < segments; i++) {
+      page[27 + i] = (byte) (i < segments - 1 ? 255 : packet.length % 255);
+    }
+    System.arraycopy(packet, 0, page, 27 + segments, packet.length);
+
+    return page;
+  }
+
+  static byte[] getHeaders() {
+    ByteArrayOutputStream headers = new ByteArrayOutputStream();
+
+    byte[] head = new byte[19];
+    System.arraycopy("OpusHead".getBytes(), 0, head, 0, 8);
+    byte[] page = getPage(0x02, 0, head);
+    headers.write(page, 0, page.length);
+
+    page = getPage(0x00, 0, "OpusTags".getBytes());
+    headers.write(page, 0, page.length);
+
+    return headers.toByteArray();
+  }
+
+  static byte[] getStream(long firstGranule, int pages) {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+    for (int i = 0; i < pages; i++) {
+      byte[] page = getPage(0x00, firstGranule + i * 960L, new byte[300 + i % 7]);
+      stream.write(page, 0, page.length);
+    }
+
+    return stream.toByteArray();
+  }
+
+  private static byte[] concat(byte[] first, byte[] second) {
+    byte[] result = new byte[first.length + second.length];
+    System.arraycopy(first, 0, result, 0, first.length);
+    System.arraycopy(second, 0, result, first.length, second.length);
+    return result;
+  }
+
+  @Test
+  public void testGranuleDuration() {
+    byte[] stream = concat(getHeaders(), getStream(1272, 51));
+
+    OggPacer pacer = new OggPacer(0);
+    Assert.assertEquals(1000000000L, pacer.getDurationNanos(stream, 0, stream.length));
+  }
+
+  @Test
+  public void testSplitStream() {
+    byte[] stream = concat(getHeaders(), getStream(1272, 51));
+
+    OggPacer pacer = new OggPacer(0);
+
+    long duration = 0;
+    for (int offset = 0; offset < stream.length; offset += 7) {
+      duration += pacer.getDurationNanos(stream, offset, Math.min(7, stream.length - offset));
+    }
+    Assert.assertEquals(1000000000L, duration);
+  }
+
+  @Test
+  public void testReset() {
+    OggPacer pacer = new OggPacer(0);
+
+    byte[] stream = concat(getHeaders(), getStream(1272, 26));
+    Assert.assertEquals(500000000L, pacer.getDurationNanos(stream, 0, stream.length));
+
+    // reconnection: headers sent again, then the pages following the last ones sent
+    pacer.reset();
+    stream = concat(getHeaders(), getStream(1272 + 26 * 960L, 26));
+    Assert.assertEquals(500000000L, pacer.getDurationNanos(stream, 0, stream.length));
+  }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.supernovapps.audio.jstreamsourcer.ultravox2.Message;
+
+public class ReconnectSupervisorTest {
+
+  private Icecast icecast;
+  private ReconnectSupervisor supervisor;
+  private List<String> events;
+
+  @Before
+  public void setUp() {
+    icecast = new Icecast(128, 5000);
+    icecast.setHost("localhost");
+    icecast.setPath("/stream1");
+    icecast.setUsername("username1");
+    icecast.setPassword("password1");
+
+    supervisor = new ReconnectSupervisor();
+    supervisor.setInitialDelay(200);
+    supervisor.setJitter(0);
+    icecast.setReconnectSupervisor(supervisor);
+
+    events = Collections.synchronizedList(new ArrayList<String>());
+    icecast.setOnSourcerListener(new OnReconnectListener() {
+      @Override
+      public void onDisconnected(boolean connected) {}
+
+      @Override
+      public void onError(String string) {}
+
+      @Override
+      public void onConnected() {}
+
+      @Override
+      public void onConnectionLost(String error) {
+        events.add("lost");
+      }
+
+      @Override
+      public void onReconnecting(int attempt, long delayMillis) {
+        events.add("reconnecting " + attempt + " " + delayMillis);
+      }
+
+      @Override
+      public void onReconnected(int attempts, long replayedBytes, long droppedBytes) {
+        events.add("reconnected " + attempts + " " + replayedBytes + " " + droppedBytes);
+      }
+
+      @Override
+      public void onReconnectFailed(int attempts) {
+        events.add("failed " + attempts);
+      }
+    });
+  }
+
+  /*
+   * Socket accepting the handshake, then failing on the first write
+   */
+  private Socket getBrokenSocket() throws IOException {
+    OutputStream out = new FilterOutputStream(new ByteArrayOutputStream()) {
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        if (len == 10) {
+          throw new IOException("Broken pipe");
+        }
+        out.write(b, off, len);
+      }
+    };
+
+    Socket sockMock = EasyMock.createNiceMock(Socket.class);
+    EasyMock.expect(sockMock.getOutputStream()).andReturn(out);
+    EasyMock.expect(sockMock.getInputStream())
+        .andReturn(new ByteArrayInputStream("HTTP OK".getBytes()));
+    EasyMock.replay(sockMock);
+
+    return sockMock;
+  }
+
+  @Test
+  public void testReplay() throws Exception {
+    final ServerSocket server = new ServerSocket(0);
+    final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+    Thread serverThread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Socket client = server.accept();
+          BufferedReader reader =
+              new BufferedReader(new InputStreamReader(client.getInputStream()));
+
+          String line;
+          while ((line = reader.readLine()) != null && line.length() > 0) {}
+
+          client.getOutputStream().write("HTTP/1.0 200 OK\r\n\r\n".getBytes());
+
+          int c;
+          while ((c = reader.read()) != -1) {
+            synchronized (received) {
+              received.write(c);
+            }
+          }
+          client.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    };
+    serverThread.start();
+
+    icecast.setPort(server.getLocalPort());
+    Assert.assertTrue(icecast.start(getBrokenSocket()));
+
+    byte[] lost = "lostlost!!".getBytes();
+    icecast.write(lost, lost.length);
+    Assert.assertTrue(supervisor.isReconnecting());
+
+    byte[] data = "01234".getBytes();
+    icecast.write(data, data.length);
+    icecast.write(data, data.length);
+    Assert.assertEquals(10, supervisor.getBufferedBytes());
+
+    for (int i = 0; i < 200 && supervisor.isReconnecting(); i++) {
+      Thread.sleep(10);
+    }
+    Assert.assertFalse(supervisor.isReconnecting());
+    Assert.assertTrue(icecast.isStarted());
+
+    data = "56789".getBytes();
+    icecast.write(data, data.length);
+    icecast.stop();
+
+    serverThread.join(5000);
+    server.close();
+
+    Assert.assertEquals("012340123456789", new String(received.toByteArray()));
+    Assert.assertEquals("lost", events.get(0));
+    Assert.assertEquals("reconnecting 1 200", events.get(1));
+    Assert.assertEquals("reconnected 1 10 0", events.get(2));
+  }
+
+  @Test
+  public void testSkipToLiveAndGiveUp() throws Exception {
+    // nothing listening on that port
+    ServerSocket server = new ServerSocket(0);
+    icecast.setPort(server.getLocalPort());
+    server.close();
+
+    supervisor.setInitialDelay(10);
+    supervisor.setMaxAttempts(3);
+    supervisor.setResumeMode(ReconnectSupervisor.ResumeMode.SKIP_TO_LIVE);
+
+    Assert.assertTrue(icecast.start(getBrokenSocket()));
+
+    byte[] lost = "lostlost!!".getBytes();
+    icecast.write(lost, lost.length);
+
+    for (int i = 0; i < 200 && supervisor.isReconnecting(); i++) {
+      Thread.sleep(10);
+    }
+    Assert.assertFalse(supervisor.isReconnecting());
+    Assert.assertFalse(icecast.isStarted());
+
+    Assert.assertEquals("lost", events.get(0));
+    Assert.assertEquals("reconnecting 1 10", events.get(1));
+    Assert.assertEquals("reconnecting 2 20", events.get(2));
+    Assert.assertEquals("reconnecting 3 40", events.get(3));
+    Assert.assertEquals("failed 3", events.get(4));
+  }
+
+  @Test
+  public void testJitteredDelay() {
+    supervisor.setJitter(0.5);
+    for (int i = 0; i < 100; i++) {
+      long delay = supervisor.getJitteredDelay(1000);
+      Assert.assertTrue(delay > 500 && delay <= 1000);
+    }
+  }
+
+  @Test
+  public void testRejectedAttemptsCloseConnections() throws Exception {
+    final ServerSocket server = new ServerSocket(0);
+    final AtomicInteger accepted = new AtomicInteger();
+    final AtomicInteger open = new AtomicInteger();
+
+    Thread acceptor = new Thread() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            final Socket client = server.accept();
+            accepted.incrementAndGet();
+            open.incrementAndGet();
+
+            new Thread() {
+              @Override
+              public void run() {
+                try {
+                  // the source is refused as soon as it asks for the cipher key
+                  Message.read(client.getInputStream());
+
+                  Message nak = new Message();
+                  nak.msgClass = Message.CLASS_BROADCASTER;
+                  nak.msgType = Message.BROADCAST_REQUEST_CIPHER;
+                  nak.payload = "NAK:Deny".getBytes();
+                  client.getOutputStream().write(nak.encode());
+
+                  while (client.getInputStream().read() != -1) {}
+                  client.close();
+                } catch (IOException e) {}
+                open.decrementAndGet();
+              }
+            }.start();
+          }
+        } catch (IOException e) {}
+      }
+    };
+    acceptor.setDaemon(true);
+    acceptor.start();
+
+    ShoutcastV2 shoutcast = new ShoutcastV2(128, 5000);
+    shoutcast.setHost("localhost");
+    shoutcast.setPort(server.getLocalPort());
+    shoutcast.setPassword("password1");
+    shoutcast.setUid("1");
+    shoutcast.setSid("1");
+
+    ReconnectSupervisor rejected = new ReconnectSupervisor();
+    rejected.setInitialDelay(10);
+    rejected.setMultiplier(1);
+    rejected.setJitter(0);
+    rejected.setMaxAttempts(5);
+    shoutcast.setReconnectSupervisor(rejected);
+
+    rejected.connectionLost("test");
+    for (int i = 0; i < 500 && rejected.isReconnecting(); i++) {
+      Thread.sleep(10);
+    }
+    Assert.assertFalse(rejected.isReconnecting());
+    Assert.assertEquals(5, accepted.get());
+
+    for (int i = 0; i < 100 && open.get() > 0; i++) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(0, open.get());
+
+    server.close();
+  }
+}
@@ -19,6 +19,7 @@ package com.supernovapps.audio.jstreamsourcer;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -96,6 +97,25 @@ public class ShoutcastV1Test {
     Assert.assertTrue(shoutcast.isStarted());
   }
 
+  @Test
+  public void testConnectTimeout() throws IOException {
+    Socket sockMock = EasyMock.createNiceMock(Socket.class);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayInputStream in = new ByteArrayInputStream(new String("OK").getBytes());
+
+    sockMock.connect(EasyMock.anyObject(InetSocketAddress.class), EasyMock.eq(1234));
+    EasyMock.expectLastCall().once();
+    EasyMock.expect(sockMock.getOutputStream()).andReturn(out);
+    EasyMock.expect(sockMock.getInputStream()).andReturn(in);
+    EasyMock.replay(sockMock);
+
+    shoutcast.setTimeout(1234);
+    shoutcast.start(sockMock);
+
+    EasyMock.verify(sockMock);
+  }
+
   @Test
   public void testConnectFails() throws IOException {
     Socket mock = EasyMock.createNiceMock(Socket.class);
@@ -18,8 +18,20 @@ package com.supernovapps.audio.jstreamsourcer;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
@@ -36,6 +48,8 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.supernovapps.audio.jstreamsourcer.ultravox2.Message;
+import com.supernovapps.audio.jstreamsourcer.ultravox2.MessageFactory;
+import com.supernovapps.audio.jstreamsourcer.ultravox2.MetadataXmlEncoder;
 
 public class ShoutcastV2Test {
 
@@ -186,6 +200,109 @@ public class ShoutcastV2Test {
     Assert.assertTrue(onConnected);
   }
 
+  @Test
+  public void testUpdateMetadataAsync() throws IOException, InterruptedException,
+      ExecutionException {
+    Socket sockMock = EasyMock.createNiceMock(Socket.class);
+
+    ByteArrayInputStream in = new ByteArrayInputStream(getSetReplyByteSequence());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    EasyMock.expect(sockMock.getOutputStream()).andReturn(out);
+    EasyMock.expect(sockMock.getInputStream()).andReturn(in);
+    EasyMock.replay(sockMock);
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    final CountDownLatch latch = new CountDownLatch(1);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          latch.await();
+        } catch (InterruptedException e) {}
+      }
+    });
+    shoutcast.setMetadataExecutor(executor);
+
+    shoutcast.start(sockMock);
+    out.reset();
+
+    // sent from the metadata executor, not from the calling thread
+    Future<Boolean> result = shoutcast.updateMetadataAsync("song", "artist", "album");
+    Assert.assertEquals(0, out.size());
+
+    latch.countDown();
+    Assert.assertTrue(result.get());
+
+    Message message = Message.read(new ByteArrayInputStream(out.toByteArray()));
+    Assert.assertEquals(Message.CACHEABLE_METADATA1_XML_SHOUCAST_METADATA, message.msgType);
+
+    executor.shutdown();
+  }
+
+  @Test
+  public void testCoalescedMetadataNotStalledByBlockedMount() throws Exception {
+    final CountDownLatch unblock = new CountDownLatch(1);
+    final boolean[] blocking = {false};
+
+    OutputStream blockedOut = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        if (blocking[0]) {
+          try {
+            unblock.await(5, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {}
+        }
+      }
+    };
+
+    Socket blockedSock = EasyMock.createNiceMock(Socket.class);
+    EasyMock.expect(blockedSock.getOutputStream()).andReturn(blockedOut);
+    EasyMock.expect(blockedSock.getInputStream()).andReturn(
+        new ByteArrayInputStream(getSetReplyByteSequence()));
+    EasyMock.expect(blockedSock.isConnected()).andReturn(true).anyTimes();
+    EasyMock.replay(blockedSock);
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    shoutcast.setMetadataExecutor(executor);
+    shoutcast.setMetadataInterval(50);
+    Assert.assertTrue(shoutcast.start(blockedSock));
+    blocking[0] = true;
+
+    // the first update blocks on the socket, the second one is due from the shared timer
+    shoutcast.updateMetadataAsync("song1", "artist", "album");
+    shoutcast.updateMetadataAsync("song2", "artist", "album");
+    Thread.sleep(100);
+
+    ShoutcastV2 other = new ShoutcastV2(bitrate, 5000);
+    other.setHost("localhost");
+    other.setPort(8000);
+    other.setPassword("password1");
+    other.setUid("1");
+    other.setSid("3");
+
+    Socket sockMock = EasyMock.createNiceMock(Socket.class);
+    EasyMock.expect(sockMock.getOutputStream()).andReturn(new ByteArrayOutputStream());
+    EasyMock.expect(sockMock.getInputStream()).andReturn(
+        new ByteArrayInputStream(getSetReplyByteSequence()));
+    EasyMock.replay(sockMock);
+
+    other.setMetadataInterval(50);
+    Assert.assertTrue(other.start(sockMock));
+
+    other.updateMetadataAsync("song1", "artist", "album");
+    Future<Boolean> result = other.updateMetadataAsync("song2", "artist", "album");
+    Assert.assertTrue(result.get(2, TimeUnit.SECONDS));
+
+    unblock.countDown();
+    executor.shutdown();
+  }
+
   @Test
   public void testUpdateMetadata() throws IOException, ParserConfigurationException, SAXException {
     Socket sockMock = EasyMock.createNiceMock(Socket.class);
@@ -226,6 +343,354 @@ public class ShoutcastV2Test {
     Assert.assertEquals("artist", artistNode.getFirstChild().getNodeValue());
   }
 
+  @Test
+  public void testUpdateMetadataCached() throws IOException {
+    Socket sockMock = EasyMock.createNiceMock(Socket.class);
+
+    ByteArrayInputStream in = new ByteArrayInputStream(getSetReplyByteSequence());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    EasyMock.expect(sockMock.getOutputStream()).andReturn(out);
+    EasyMock.expect(sockMock.getInputStream()).andReturn(in);
+    EasyMock.replay(sockMock);
+
+    shoutcast.start(sockMock);
+    out.reset();
+
+    shoutcast.updateMetadata("jingle", "station", "");
+    byte[] first = out.toByteArray();
+    out.reset();
+
+    shoutcast.updateMetadata("jingle", "station", "");
+    Assert.assertArrayEquals(first, out.toByteArray());
+
+    Assert.assertEquals(1, shoutcast.getMetadataCache().getHits());
+    Assert.assertEquals(1, shoutcast.getMetadataCache().getMisses());
+  }
+
+  @Test
+  public void testBinaryMetadata() throws IOException {
+    Socket sockMock = EasyMock.createNiceMock(Socket.class);
+
+    ByteArrayInputStream in = new ByteArrayInputStream(getSetReplyByteSequence());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    EasyMock.expect(sockMock.getOutputStream()).andReturn(out);
+    EasyMock.expect(sockMock.getInputStream()).andReturn(in);
+    EasyMock.replay(sockMock);
+
+    shoutcast.start(sockMock);
+    out.reset();
+
+    byte[] picture = new byte[3 * shoutcast.getNegotiatedPayload()];
+    for (int i = 0; i < picture.length; i++) {
+      picture[i] = (byte) i;
+    }
+
+    File file = File.createTempFile("jstreamsourcer", ".png");
+    file.deleteOnExit();
+    FileOutputStream fileOut = new FileOutputStream(file);
+    fileOut.write(picture);
+    fileOut.close();
+
+    // the 0x100 bit selects the playing art, the low bits give the image format
+    Assert.assertEquals(0x100, Message.BINARY_METADATA_PLAYING_ART | Message.BINARY_METADATA_JPEG);
+    Assert.assertEquals(0x003, Message.BINARY_METADATA_STATION_ART | Message.BINARY_METADATA_GIF);
+
+    short msgType = Message.BINARY_METADATA_PLAYING_ART | Message.BINARY_METADATA_PNG;
+    Assert.assertEquals(0x101, msgType);
+
+    shoutcast.sendBinaryMetadata(msgType, ByteBuffer.wrap(picture));
+    while (shoutcast.isSendingBinaryMetadata()) {
+      shoutcast.write(new byte[100], 100);
+    }
+    Assert.assertArrayEquals(picture, getBinaryMetadata(out.toByteArray(), msgType));
+
+    out.reset();
+    shoutcast.sendBinaryMetadata(msgType, file);
+    while (shoutcast.isSendingBinaryMetadata()) {
+      shoutcast.write(new byte[100], 100);
+    }
+    Assert.assertArrayEquals(picture, getBinaryMetadata(out.toByteArray(), msgType));
+  }
+
+  /*
+   * Gathers the binary metadata messages, checking that they alternate with the audio ones
+   */
+  private byte[] getBinaryMetadata(byte[] stream, short msgType) {
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+    int offset = 0;
+    int previousClass = -1;
+    int index = 1;
+    while (offset < stream.length) {
+      int msgClass = (stream[offset + 2] >> 4) & 0x0F;
+      int len = getFramePayloadLength(stream, offset);
+
+      if (msgClass == Message.CLASS_CACHEABLE_BINARY_METADATA) {
+        Assert.assertEquals(Message.CLASS_DATA1, previousClass);
+        Assert.assertEquals(msgType, (stream[offset + 2] & 0x0F) << 8 | stream[offset + 3] & 0xFF);
+        Assert.assertEquals(index++, (stream[offset + 10] & 0xFF) << 8 | stream[offset + 11] & 0xFF);
+
+        data.write(stream, offset + 12, len - 6);
+      }
+
+      previousClass = msgClass;
+      offset += 6 + len + 1;
+    }
+
+    return data.toByteArray();
+  }
+
+  @Test
+  public void testAacp() throws IOException {
+    Socket sockMock = EasyMock.createNiceMock(Socket.class);
+
+    ByteArrayInputStream in = new ByteArrayInputStream(getSetReplyByteSequence());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    EasyMock.expect(sockMock.getOutputStream()).andReturn(out);
+    EasyMock.expect(sockMock.getInputStream()).andReturn(in);
+    EasyMock.replay(sockMock);
+
+    shoutcast.setCodec(Codec.AACP);
+    shoutcast.start(sockMock);
+
+    ByteArrayInputStream handshake = new ByteArrayInputStream(out.toByteArray());
+    Message msg;
+    do {
+      msg = Message.read(handshake);
+    } while (msg.msgType != Message.BROADCAST_STREAM_MINE_TYPE);
+    Assert.assertEquals("audio/aacp", new String(msg.payload));
+
+    out.reset();
+
+    // AAC, 24000 Hz core, 300 bytes ADTS frames
+    byte[] frames = new byte[600];
+    for (int i = 0; i < frames.length; i += 300) {
+      frames[i] = (byte) 0xFF;
+      frames[i + 1] = (byte) 0xF1;
+      frames[i + 2] = (byte) 0x58;
+      frames[i + 3] = (byte) 0x80;
+      frames[i + 4] = (byte) (300 >> 3);
+      frames[i + 5] = (byte) ((300 & 0x07) << 5 | 0x1F);
+      frames[i + 6] = (byte) 0xFC;
+    }
+
+    shoutcast.write(frames, 400);
+    byte[] written = out.toByteArray();
+    Assert.assertEquals(300 + 7, written.length);
+    Assert.assertEquals(Message.CLASS_DATA2, (written[2] >> 4) & 0x0F);
+    Assert.assertEquals(Message.DATA2_AACP, (written[2] & 0x0F) << 8 | written[3] & 0xFF);
+    Assert.assertEquals(300, getFramePayloadLength(written, 0));
+  }
+
+  @Test
+  public void testPipelinedHandshake() throws IOException {
+    final List<Integer> writes = new ArrayList<Integer>();
+    ByteArrayOutputStream out = new ByteArrayOutputStream() {
+      @Override
+      public synchronized void write(byte[] b, int off, int len) {
+        writes.add(len);
+        super.write(b, off, len);
+      }
+    };
+
+    Socket sockMock = EasyMock.createNiceMock(Socket.class);
+    EasyMock.expect(sockMock.getOutputStream()).andReturn(out);
+    EasyMock.expect(sockMock.getInputStream())
+        .andReturn(new ByteArrayInputStream(getSetReplyByteSequence()));
+    EasyMock.replay(sockMock);
+
+    shoutcast.setPipelined(true);
+    Assert.assertTrue(shoutcast.start(sockMock));
+
+    // cipher request, authentication, then all the configuration at once
+    Assert.assertEquals(3, writes.size());
+
+    ByteArrayInputStream handshake = new ByteArrayInputStream(out.toByteArray());
+    short[] expected = {Message.BROADCAST_REQUEST_CIPHER, Message.BROADCAST_AUTHENTIFICATE,
+        Message.BROADCAST_STREAM_MINE_TYPE, Message.BROADCAST_SETUP,
+        Message.BROADCAST_NEGOTIATE_BUFFER_SIZE, Message.BROADCAST_NEGOTIATE_MAX_PAYLOAD,
+        Message.BROADCAST_CONFIGURE_ICY_GENRE, Message.BROADCAST_CONFIGURE_ICY_NAME,
+        Message.BROADCAST_CONFIGURE_ICY_PUB, Message.BROADCAST_CONFIGURE_ICY_URL,
+        Message.BROADCAST_STANDBY};
+    for (short msgType : expected) {
+      Assert.assertEquals(msgType, Message.read(handshake).msgType);
+    }
+    Assert.assertEquals(0, handshake.available());
+
+    ConnectionTimings timings = shoutcast.getConnectionTimings();
+    Assert.assertEquals(1, timings.getAttempts());
+    Assert.assertEquals(1, timings.get(ConnectionTimings.HANDSHAKE).getCount());
+    Assert.assertEquals(1, timings.get("ultravox_cipher").getCount());
+    Assert.assertEquals(1, timings.get("ultravox_standby").getCount());
+    Assert.assertNull(timings.get(ConnectionTimings.FIRST_BYTE));
+
+    byte[] data = new byte[10];
+    shoutcast.write(data, data.length);
+    Assert.assertEquals(1, timings.get(ConnectionTimings.FIRST_BYTE).getCount());
+  }
+
+  @Test
+  public void testPipelinedHandshakeRefused() throws IOException {
+    final List<String> errors = new ArrayList<String>();
+    shoutcast.setOnSourcerListener(new OnSourcerListener() {
+      @Override
+      public void onError(String string) {
+        errors.add(string);
+      }
+
+      @Override
+      public void onDisconnected(boolean connected) {}
+
+      @Override
+      public void onConnected() {}
+    });
+
+    Message refused = getSetupBroadcastReply();
+    refused.payload = "NAK:Bit rate error".getBytes();
+
+    ByteArrayOutputStream replies = new ByteArrayOutputStream();
+    replies.write(getRequestCipherMessageReply().encode());
+    replies.write(getBroadcastAuthRequestReply().encode());
+    replies.write(getStreamMimeTypeReply().encode());
+    replies.write(refused.encode());
+
+    Socket sockMock = EasyMock.createNiceMock(Socket.class);
+    EasyMock.expect(sockMock.getOutputStream()).andReturn(new ByteArrayOutputStream());
+    EasyMock.expect(sockMock.getInputStream())
+        .andReturn(new ByteArrayInputStream(replies.toByteArray()));
+    EasyMock.replay(sockMock);
+
+    shoutcast.setPipelined(true);
+    Assert.assertFalse(shoutcast.start(sockMock));
+    Assert.assertEquals(1, errors.size());
+    Assert.assertEquals("NAK", errors.get(0));
+  }
+
+  @Test
+  public void testMetadataFragments() {
+    StringBuilder song = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      song.append("東京é");
+    }
+    Metadata metadata = new Metadata(song.toString(), "artist", "album");
+
+    int payloadLen = 64;
+    Message[] msgs = MessageFactory.getMetadata(metadata, payloadLen);
+
+    byte[] xml = new MetadataXmlEncoder().encode(metadata).toByteArray();
+    Assert.assertEquals((xml.length + payloadLen - 7) / (payloadLen - 6), msgs.length);
+
+    ByteArrayOutputStream document = new ByteArrayOutputStream();
+    int id = -1;
+    for (int i = 0; i < msgs.length; i++) {
+      byte[] payload = msgs[i].payload;
+      Assert.assertTrue(payload.length <= payloadLen);
+
+      int msgId = (payload[0] & 0xFF) << 8 | payload[1] & 0xFF;
+      if (id == -1) {
+        id = msgId;
+      }
+      Assert.assertEquals(id, msgId);
+      Assert.assertEquals(msgs.length, (payload[2] & 0xFF) << 8 | payload[3] & 0xFF);
+      Assert.assertEquals(i + 1, (payload[4] & 0xFF) << 8 | payload[5] & 0xFF);
+
+      document.write(payload, 6, payload.length - 6);
+    }
+
+    Assert.assertArrayEquals(xml, document.toByteArray());
+  }
+
+  @Test
+  public void testWrite() throws IOException {
+    Socket sockMock = EasyMock.createNiceMock(Socket.class);
+
+    ByteArrayInputStream in = new ByteArrayInputStream(getSetReplyByteSequence());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    EasyMock.expect(sockMock.getOutputStream()).andReturn(out);
+    EasyMock.expect(sockMock.getInputStream()).andReturn(in);
+    EasyMock.replay(sockMock);
+
+    shoutcast.start(sockMock);
+    out.reset();
+
+    byte[] data = "0123456789".getBytes();
+    shoutcast.write(data, data.length);
+    shoutcast.write(data, 5);
+
+    ByteArrayInputStream written = new ByteArrayInputStream(out.toByteArray());
+
+    Message message = Message.read(written);
+    Assert.assertEquals(Message.CLASS_DATA1, message.msgClass);
+    Assert.assertEquals(Message.DATA1_MP3, message.msgType);
+    Assert.assertEquals("0123456789", new String(message.payload));
+
+    message = Message.read(written);
+    Assert.assertEquals("01234", new String(message.payload));
+    Assert.assertEquals(0, written.available());
+  }
+
+  @Test
+  public void testWriteSplit() throws IOException {
+    Socket sockMock = EasyMock.createNiceMock(Socket.class);
+
+    ByteArrayInputStream in = new ByteArrayInputStream(getSetReplyByteSequence());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    EasyMock.expect(sockMock.getOutputStream()).andReturn(out);
+    EasyMock.expect(sockMock.getInputStream()).andReturn(in);
+    EasyMock.replay(sockMock);
+
+    shoutcast.start(sockMock);
+    out.reset();
+
+    shoutcast.write(new byte[10000], 10000);
+
+    byte[] written = out.toByteArray();
+    Assert.assertEquals(10000 + 3 * 7, written.length);
+    Assert.assertEquals(4096, getFramePayloadLength(written, 0));
+    Assert.assertEquals(4096, getFramePayloadLength(written, 4096 + 7));
+    Assert.assertEquals(1808, getFramePayloadLength(written, 2 * (4096 + 7)));
+  }
+
+  @Test
+  public void testWriteCoalescing() throws IOException {
+    Socket sockMock = EasyMock.createNiceMock(Socket.class);
+
+    ByteArrayInputStream in = new ByteArrayInputStream(getSetReplyByteSequence());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    EasyMock.expect(sockMock.getOutputStream()).andReturn(out);
+    EasyMock.expect(sockMock.getInputStream()).andReturn(in);
+    EasyMock.replay(sockMock);
+
+    shoutcast.setCoalescing(true);
+    shoutcast.start(sockMock);
+    out.reset();
+
+    for (int i = 0; i < 50; i++) {
+      shoutcast.write(new byte[100], 100);
+    }
+
+    byte[] written = out.toByteArray();
+    Assert.assertEquals(4096 + 7, written.length);
+    Assert.assertEquals(4096, getFramePayloadLength(written, 0));
+
+    out.reset();
+    shoutcast.flush();
+
+    written = out.toByteArray();
+    Assert.assertEquals(5000 - 4096, getFramePayloadLength(written, 0));
+  }
+
+  private int getFramePayloadLength(byte[] buffer, int offset) {
+    Assert.assertEquals(0x5A, buffer[offset]);
+    return (buffer[offset + 4] & 0xFF) << 8 | (buffer[offset + 5] & 0xFF);
+  }
+
   private byte[] getSetReplyByteSequence() throws IOException {
     ByteArrayOutputStream outMessageStream = new ByteArrayOutputStream();
     outMessageStream.write(getRequestCipherMessageReply().encode());
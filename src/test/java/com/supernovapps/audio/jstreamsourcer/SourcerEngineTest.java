@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SourcerEngineTest {
+  private static final int MOUNTS = 3;
+
+  private ServerSocket server;
+  private AtomicInteger received;
+  private SourcerEngine engine;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new ServerSocket(0);
+    received = new AtomicInteger();
+
+    Thread acceptor = new Thread() {
+      @Override
+      public void run() {
+        try {
+          for (int i = 0; i < MOUNTS; i++) {
+            final Socket client = server.accept();
+
+            new Thread() {
+              @Override
+              public void run() {
+                serve(client);
+              }
+            }.start();
+          }
+        } catch (IOException e) {}
+      }
+    };
+    acceptor.setDaemon(true);
+    acceptor.start();
+
+    engine = new SourcerEngine(2);
+    engine.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    engine.shutdown();
+    server.close();
+  }
+
+  private void serve(Socket client) {
+    try {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream()));
+
+      String line;
+      while ((line = reader.readLine()) != null && line.length() > 0) {}
+
+      client.getOutputStream().write("HTTP/1.0 200 OK\r\n\r\n".getBytes());
+
+      while (reader.read() != -1) {
+        received.incrementAndGet();
+      }
+      client.close();
+    } catch (IOException e) {}
+  }
+
+  private Icecast newIcecast(int index) {
+    Icecast icecast = new Icecast(128, 5000);
+    icecast.setHost("localhost");
+    icecast.setPort(server.getLocalPort());
+    icecast.setPath("/stream" + index);
+    icecast.setUsername("username");
+    icecast.setPassword("password");
+
+    return icecast;
+  }
+
+  @Test
+  public void testRegisterRequiresChannel() {
+    Icecast icecast = newIcecast(0);
+
+    try {
+      engine.register(icecast, 8, OverflowPolicy.BLOCK);
+      Assert.fail();
+    } catch (IllegalStateException e) {}
+  }
+
+  @Test
+  public void testMultipleMounts() throws IOException, InterruptedException {
+    Icecast[] mounts = new Icecast[MOUNTS];
+    for (int i = 0; i < MOUNTS; i++) {
+      mounts[i] = newIcecast(i);
+      Assert.assertTrue(mounts[i].start(SocketChannel.open()));
+
+      engine.register(mounts[i], 8, OverflowPolicy.BLOCK);
+    }
+    Assert.assertEquals(MOUNTS, engine.getSourcerCount());
+
+    byte[] data = "0123456789".getBytes();
+    for (int n = 0; n < 5; n++) {
+      for (Icecast icecast : mounts) {
+        icecast.write(data, data.length);
+      }
+    }
+
+    for (int i = 0; i < 200 && received.get() < MOUNTS * 50; i++) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(MOUNTS * 50, received.get());
+
+    for (Icecast icecast : mounts) {
+      engine.unregister(icecast);
+      icecast.stop();
+    }
+  }
+
+  @Test
+  public void testWriteErrorLosesConnection() throws Exception {
+    final ServerSocket closing = new ServerSocket(0);
+
+    Thread acceptor = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Socket client = closing.accept();
+          BufferedReader reader =
+              new BufferedReader(new InputStreamReader(client.getInputStream()));
+
+          String line;
+          while ((line = reader.readLine()) != null && line.length() > 0) {}
+
+          client.getOutputStream().write("HTTP/1.0 200 OK\r\n\r\n".getBytes());
+          client.setSoLinger(true, 0);
+          client.close();
+        } catch (IOException e) {}
+      }
+    };
+    acceptor.setDaemon(true);
+    acceptor.start();
+
+    final CountDownLatch lost = new CountDownLatch(1);
+
+    Icecast icecast = newIcecast(0);
+    icecast.setPort(closing.getLocalPort());
+    icecast.setPacer(null);
+    icecast.setOnSourcerListener(new OnReconnectListener() {
+      @Override
+      public void onDisconnected(boolean connected) {}
+
+      @Override
+      public void onError(String string) {}
+
+      @Override
+      public void onConnected() {}
+
+      @Override
+      public void onConnectionLost(String error) {
+        lost.countDown();
+      }
+
+      @Override
+      public void onReconnecting(int attempt, long delayMillis) {}
+
+      @Override
+      public void onReconnected(int attempts, long replayedBytes, long droppedBytes) {}
+
+      @Override
+      public void onReconnectFailed(int attempts) {}
+    });
+
+    ReconnectSupervisor supervisor = new ReconnectSupervisor();
+    supervisor.setInitialDelay(60000);
+    icecast.setReconnectSupervisor(supervisor);
+
+    Assert.assertTrue(icecast.start(SocketChannel.open()));
+    engine.register(icecast, 8, OverflowPolicy.DROP_OLDEST);
+
+    byte[] data = new byte[1024];
+    for (int i = 0; i < 200 && lost.getCount() > 0; i++) {
+      icecast.write(data, data.length);
+      Thread.sleep(10);
+    }
+
+    // the failure goes through connectionLost, so the supervisor takes over
+    Assert.assertTrue(lost.await(1, TimeUnit.SECONDS));
+    Assert.assertEquals(0, engine.getSourcerCount());
+    Assert.assertTrue(supervisor.isReconnecting());
+
+    icecast.setReconnectSupervisor(null);
+    closing.close();
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Arrays;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.supernovapps.audio.jstreamsourcer.audio.Mp3FrameFormat;
+
+public class StreamMetricsTest {
+
+  private Icecast icecast;
+
+  @Before
+  public void setUp() throws IOException {
+    icecast = new Icecast(128, 5000);
+    icecast.setHost("localhost");
+    icecast.setPort(8000);
+    icecast.setPath("/stream1");
+
+    Socket sockMock = EasyMock.createNiceMock(Socket.class);
+    EasyMock.expect(sockMock.getOutputStream()).andReturn(new ByteArrayOutputStream());
+    EasyMock.expect(sockMock.getInputStream())
+        .andReturn(new ByteArrayInputStream("HTTP OK".getBytes()));
+    EasyMock.expect(sockMock.isConnected()).andReturn(true).anyTimes();
+    EasyMock.replay(sockMock);
+
+    Assert.assertTrue(icecast.start(sockMock));
+  }
+
+  /*
+   * MPEG 1 layer III, 128 kbps, 44100 Hz, 417 bytes
+   */
+  private static byte[] getMp3Frames(int count) {
+    byte[] frames = new byte[417 * count];
+    for (int i = 0; i < frames.length; i += 417) {
+      frames[i] = (byte) 0xFF;
+      frames[i + 1] = (byte) 0xFB;
+      frames[i + 2] = (byte) 0x90;
+    }
+    return frames;
+  }
+
+  @Test
+  public void testCounters() {
+    icecast.setFrameFormat(new Mp3FrameFormat());
+
+    byte[] frames = getMp3Frames(10);
+    byte[] rest = Arrays.copyOfRange(frames, 1000, frames.length);
+    icecast.write(frames, 1000);
+    icecast.write(rest, rest.length);
+
+    StreamMetrics metrics = icecast.getMetrics();
+    Assert.assertEquals(417 * 10, metrics.getBytesSent());
+    Assert.assertEquals(2, metrics.getWrites());
+    Assert.assertEquals(10, metrics.getFramesWritten());
+    Assert.assertEquals(0, metrics.getWriteErrors());
+    Assert.assertEquals(128000, metrics.getTargetBitrate());
+    Assert.assertEquals(2, metrics.getWriteLatency().getCount());
+    // within the burst
+    Assert.assertTrue(metrics.getPacingWaitNanos() <= 0);
+    Assert.assertEquals(0, metrics.getThrottledWrites());
+
+    metrics.reset();
+    Assert.assertEquals(0, metrics.getBytesSent());
+  }
+
+  @Test
+  public void testJmxExporter() throws Exception {
+    MBeanServer server = MBeanServerFactory.newMBeanServer();
+    JmxMetricsExporter exporter = new JmxMetricsExporter(server);
+    exporter.register("primary", icecast);
+
+    byte[] data = new byte[100];
+    icecast.write(data, data.length);
+
+    ObjectName name = JmxMetricsExporter.getObjectName("primary");
+    Assert.assertEquals(100L, server.getAttribute(name, "BytesSent"));
+    Assert.assertEquals(1L, server.getAttribute(name, "ConnectionAttempts"));
+    Assert.assertEquals(Boolean.TRUE, server.getAttribute(name, "Started"));
+
+    server.invoke(name, "resetMetrics", null, null);
+    Assert.assertEquals(0L, server.getAttribute(name, "BytesSent"));
+
+    exporter.unregister("primary");
+    Assert.assertFalse(server.isRegistered(name));
+  }
+}
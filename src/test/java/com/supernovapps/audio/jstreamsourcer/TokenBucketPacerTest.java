@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2014 Sylvain Afchain
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package com.supernovapps.audio.jstreamsourcer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TokenBucketPacerTest {
+  private static final long SECOND = 1000000000L;
+
+  @Test
+  public void testBurst() {
+    // 128 kbps, 1 second of burst
+    TokenBucketPacer pacer = TokenBucketPacer.forBitrate(128, 1000);
+    Assert.assertEquals(16000, pacer.getBytesPerSecond());
+
+    Assert.assertTrue(pacer.getWaitNanos(8000, 0) <= 0);
+    Assert.assertTrue(pacer.getWaitNanos(8000, 0) <= 0);
+    Assert.assertEquals(SECOND / 2, pacer.getWaitNanos(8000, 0));
+  }
+
+  @Test
+  public void testNoDrift() {
+    TokenBucketPacer pacer = new TokenBucketPacer(3, 0);
+
+    long wait = 0;
+    for (int i = 0; i < 3000; i++) {
+      wait = pacer.getWaitNanos(1, 0);
+    }
+
+    Assert.assertEquals(1000 * SECOND, wait);
+  }
+
+  @Test
+  public void testOversleepIsNotAccumulated() {
+    TokenBucketPacer pacer = new TokenBucketPacer(1000, 500);
+
+    Assert.assertEquals(SECOND / 2, pacer.getWaitNanos(1000, 0));
+
+    // woke up 100ms late, the next wait is shortened accordingly
+    Assert.assertEquals(SECOND - SECOND / 10, pacer.getWaitNanos(1000, SECOND / 2 + SECOND / 10));
+  }
+
+  @Test
+  public void testIdleRefillsUpToBurst() {
+    TokenBucketPacer pacer = new TokenBucketPacer(1000, 500);
+
+    pacer.getWaitNanos(500, 0);
+
+    // idle for 10 seconds, only the burst can be sent right away
+    Assert.assertTrue(pacer.getWaitNanos(500, 10 * SECOND) <= 0);
+    Assert.assertEquals(SECOND, pacer.getWaitNanos(1000, 10 * SECOND));
+  }
+
+  @Test
+  public void testReset() {
+    TokenBucketPacer pacer = new TokenBucketPacer(1000, 0);
+
+    pacer.getWaitNanos(10000, 0);
+    pacer.reset();
+
+    Assert.assertEquals(SECOND, pacer.getWaitNanos(1000, 0));
+  }
+}